@@ -0,0 +1,126 @@
+package co.casterlabs.rhs.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.commons.io.streams.OverzealousInputStream;
+import co.casterlabs.rhs.HttpServerBuilder;
+import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
+import co.casterlabs.rhs.protocol.RHSConnection;
+import co.casterlabs.rhs.protocol.api.ApiFramework;
+import co.casterlabs.rhs.protocol.api.endpoints.EndpointData;
+import co.casterlabs.rhs.protocol.api.endpoints.EndpointProvider;
+import co.casterlabs.rhs.protocol.api.endpoints.HttpEndpoint;
+import co.casterlabs.rhs.protocol.http.HttpProtocol;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Dispatches an already parsed request through {@link ApiFramework}, next to
+ * calling the endpoint directly and through {@link Method#invoke}. The
+ * difference between <code>direct</code> and <code>dispatch</code> is what
+ * the framework costs per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApiFrameworkBenchmark {
+    private static final HttpResponse RESPONSE = HttpResponse.newFixedLengthResponse(StandardHttpStatus.OK, "Hello!");
+
+    private final ApiFramework framework = new ApiFramework();
+    private final Endpoints endpoints = new Endpoints();
+    private final EndpointData<Void> data = new EndpointData<>(Collections.emptyMap(), "/hello", null);
+    private Method method;
+
+    private HttpSession session;
+    private HttpSession paramSession;
+
+    @Setup
+    public void setup() throws Exception {
+        this.framework.register(this.endpoints);
+        this.method = Endpoints.class.getMethod("hello", HttpSession.class, EndpointData.class);
+
+        this.session = session("/hello");
+        this.paramSession = session("/users/1234/posts/hello%20world");
+    }
+
+    private static HttpSession session(String path) throws Exception {
+        byte[] request = ("GET " + path + " HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        RHSConnection connection = RHSConnection.accept(
+            1440, 0, 0,
+            new FastLogger("ApiFrameworkBenchmark"),
+            new OverzealousInputStream(new ByteArrayInputStream(request)), OutputStream.nullOutputStream(),
+            "127.0.0.1", 80,
+            null,
+            new HttpServerBuilder()
+        );
+        return new HttpProtocol().accept(connection);
+    }
+
+    @Benchmark
+    public HttpResponse direct() {
+        return this.endpoints.hello(this.session, this.data);
+    }
+
+    @Benchmark
+    public Object reflection() throws Exception {
+        return this.method.invoke(this.endpoints, this.session, this.data);
+    }
+
+    @Benchmark
+    public HttpResponse dispatch() throws Exception {
+        return this.framework.httpHandler.handle(this.session);
+    }
+
+    @Benchmark
+    public HttpResponse dispatchWithParams() throws Exception {
+        return this.framework.httpHandler.handle(this.paramSession);
+    }
+
+    public static class Endpoints implements EndpointProvider {
+
+        @HttpEndpoint(path = "/hello")
+        public HttpResponse hello(HttpSession session, EndpointData<Void> data) {
+            return RESPONSE;
+        }
+
+        @HttpEndpoint(path = "/users/:user")
+        public HttpResponse user(HttpSession session, EndpointData<Void> data) {
+            return RESPONSE;
+        }
+
+        @HttpEndpoint(path = "/users/:user/posts/:post")
+        public HttpResponse post(HttpSession session, EndpointData<Void> data) {
+            return RESPONSE;
+        }
+
+        @HttpEndpoint(path = ".*", priority = -1000)
+        public HttpResponse notFound(HttpSession session, EndpointData<Void> data) {
+            return HttpResponse.newFixedLengthResponse(StandardHttpStatus.NOT_FOUND, "Not found.");
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+package co.casterlabs.rhs.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.protocol.http.MultipartReader;
+
+/**
+ * Measures how fast {@link MultipartReader} can stream parts out of a body.
+ * Divide the body size by the score to get bytes/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartBenchmark {
+    private static final String BOUNDARY = "----RakuraiBenchmarkBoundary7MA4YWxkTrZu0gW";
+    private static final HeaderValue CONTENT_TYPE = new HeaderValue("multipart/form-data; boundary=" + BOUNDARY);
+
+    @Param({
+            "1024",
+            "1048576",
+            "16777216"
+    })
+    public int partSize;
+
+    @Param({
+            "1",
+            "16"
+    })
+    public int partCount;
+
+    /**
+     * Socket reads rarely line up with anything, so we feed the reader in
+     * MTU-ish slices.
+     */
+    @Param({
+            "1440",
+            "65536"
+    })
+    public int readSize;
+
+    private byte[] body;
+    private final byte[] scratch = new byte[8192];
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(0);
+        byte[] content = new byte[this.partSize];
+        random.nextBytes(content);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < this.partCount; i++) {
+            out.write(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(("Content-Disposition: form-data; name=\"file" + i + "\"; filename=\"file" + i + ".bin\"\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write("Content-Type: application/octet-stream\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.write(content);
+            out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        out.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        this.body = out.toByteArray();
+    }
+
+    @Benchmark
+    public long readAllParts() throws IOException {
+        final int readSize = this.readSize;
+        InputStream in = new ByteArrayInputStream(this.body) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, readSize));
+            }
+        };
+
+        long total = 0;
+        try (MultipartReader reader = MultipartReader.from(CONTENT_TYPE, in, MultipartReader.Limits.DEFAULT.withMaxPartBytes(Long.MAX_VALUE))) {
+            MultipartReader.Part part;
+            while ((part = reader.next()) != null) {
+                InputStream partIn = part.stream();
+                int read;
+                while ((read = partIn.read(this.scratch)) != -1) {
+                    total += read;
+                }
+            }
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,263 @@
+package co.casterlabs.rhs.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.rhs.tls.DynamicRecordOutputStream;
+
+/**
+ * Pushes a response body over a loopback TLS connection and waits for the
+ * client to read all of it, comparing record sizing strategies. Divide the
+ * payload size by the score to get bytes/s.
+ *
+ * <ul>
+ * <li>small: always MTU sized records (what we used to do).</li>
+ * <li>large: always 16KB records.</li>
+ * <li>dynamic: {@link DynamicRecordOutputStream}'s defaults.</li>
+ * </ul>
+ *
+ * <p>
+ * The payload is either written in 8KB slices (<code>bulk</code>), or the way a
+ * chunked HTTP response actually reaches the stream (<code>mixed</code>): a
+ * header block, then a size line, CRLF, body slice and CRLF per chunk with
+ * slices of varying sizes.
+ *
+ * @implNote Requires <code>keytool</code> from the running JDK to make a
+ *           throwaway certificate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TLSRecordBenchmark {
+    private static final int MTU = 1500 - 60;
+
+    @Param({
+            "small",
+            "large",
+            "dynamic"
+    })
+    public String sizing;
+
+    @Param({
+            "16384",
+            "1048576",
+            "8388608"
+    })
+    public int payloadSize;
+
+    @Param({
+            "bulk",
+            "mixed"
+    })
+    public String writes;
+
+    private static final byte[] HEADERS = (""
+        + "HTTP/1.1 200 OK\r\n"
+        + "Content-Type: application/octet-stream\r\n"
+        + "Transfer-Encoding: chunked\r\n"
+        + "Connection: keep-alive\r\n"
+        + "Keep-Alive: timeout=5\r\n"
+        + "Date: Mon, 19 Oct 2026 00:00:00 GMT\r\n"
+        + "Server: Rakurai\r\n"
+        + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] NEWLINE = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private byte[] payload;
+    private int[] sliceSizes;
+
+    private SSLServerSocket serverSocket;
+    private SSLSocket server;
+    private SSLSocket client;
+    private Thread reader;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Random random = new Random(0);
+        this.payload = new byte[this.payloadSize];
+        random.nextBytes(this.payload);
+
+        // Anywhere from a few bytes (think flushed SSE events) to a full transfer buffer.
+        this.sliceSizes = new int[64];
+        for (int i = 0; i < this.sliceSizes.length; i++) {
+            this.sliceSizes[i] = i % 4 == 0 ? 1 + random.nextInt(64) : 1 + random.nextInt(16384);
+        }
+
+        SSLContext context = createContext();
+        this.serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+        this.client = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+        this.server = (SSLSocket) this.serverSocket.accept();
+        this.server.setTcpNoDelay(true);
+
+        // The client reads everything and acks each payload with a single byte.
+        final long payloadSize = this.wireSize();
+        this.reader = new Thread(() -> {
+            byte[] buffer = new byte[65536];
+            try (InputStream in = this.client.getInputStream(); OutputStream out = this.client.getOutputStream()) {
+                long received = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    received += read;
+                    while (received >= payloadSize) {
+                        received -= payloadSize;
+                        out.write(1);
+                        out.flush();
+                    }
+                }
+            } catch (IOException ignored) {}
+        });
+        this.reader.setDaemon(true);
+        this.reader.start();
+
+        this.server.startHandshake();
+    }
+
+    /**
+     * @return how many bytes one {@link #sendPayload()} puts on the wire,
+     *         framing included.
+     */
+    private long wireSize() {
+        if (this.writes.equals("bulk")) {
+            return this.payloadSize;
+        }
+
+        long size = HEADERS.length;
+        int slice = 0;
+        for (int off = 0; off < this.payloadSize;) {
+            int len = Math.min(this.sliceSizes[slice++ % this.sliceSizes.length], this.payloadSize - off);
+            size += Integer.toHexString(len).length() + len + 2 * NEWLINE.length;
+            off += len;
+        }
+        return size;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        this.server.close();
+        this.client.close();
+        this.serverSocket.close();
+        this.reader.join();
+    }
+
+    @Benchmark
+    public int sendPayload() throws IOException {
+        OutputStream out;
+        switch (this.sizing) {
+            case "small":
+                out = new DynamicRecordOutputStream(this.server.getOutputStream(), MTU, Long.MAX_VALUE, Long.MAX_VALUE);
+                break;
+
+            case "large":
+                out = new DynamicRecordOutputStream(this.server.getOutputStream(), MTU, 0, Long.MAX_VALUE);
+                break;
+
+            default:
+                out = new DynamicRecordOutputStream(this.server.getOutputStream(), MTU);
+                break;
+        }
+
+        if (this.writes.equals("bulk")) {
+            // Like a response body, fed through an 8kb transfer buffer.
+            for (int off = 0; off < this.payload.length; off += 8192) {
+                out.write(this.payload, off, Math.min(8192, this.payload.length - off));
+            }
+        } else {
+            // Like _ChunkedOutputStream, 4 writes per chunk.
+            out.write(HEADERS);
+            int slice = 0;
+            for (int off = 0; off < this.payload.length;) {
+                int len = Math.min(this.sliceSizes[slice++ % this.sliceSizes.length], this.payload.length - off);
+                out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+                out.write(NEWLINE);
+                out.write(this.payload, off, len);
+                out.write(NEWLINE);
+                off += len;
+            }
+        }
+        out.flush();
+
+        return this.server.getInputStream().read(); // Wait for the ack.
+    }
+
+    private static SSLContext createContext() throws Exception {
+        File keystore = File.createTempFile("rhs-bench", ".p12");
+        keystore.delete();
+        keystore.deleteOnExit();
+
+        Process keytool = new ProcessBuilder(
+            new File(System.getProperty("java.home"), "bin/keytool").getAbsolutePath(),
+            "-genkeypair", "-alias", "bench", "-keyalg", "RSA", "-keysize", "2048",
+            "-dname", "CN=localhost", "-validity", "1",
+            "-storetype", "PKCS12", "-keystore", keystore.getAbsolutePath(),
+            "-storepass", "benchmark", "-keypass", "benchmark"
+        )
+            .inheritIO()
+            .start();
+        if (keytool.waitFor() != 0) {
+            throw new IOException("keytool failed.");
+        }
+
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keystore)) {
+            store.load(in, "benchmark".toCharArray());
+        }
+        Files.deleteIfExists(keystore.toPath());
+
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(store, "benchmark".toCharArray());
+
+        TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), new TrustManager[] {
+                trustAll
+        }, null);
+        return context;
+    }
+
+}
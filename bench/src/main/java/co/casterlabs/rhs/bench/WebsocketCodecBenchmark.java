@@ -0,0 +1,353 @@
+package co.casterlabs.rhs.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.commons.io.streams.OverzealousInputStream;
+import co.casterlabs.rhs.HttpServerBuilder;
+import co.casterlabs.rhs.protocol.RHSConnection;
+import co.casterlabs.rhs.protocol.websocket.Websocket;
+import co.casterlabs.rhs.protocol.websocket.WebsocketListener;
+import co.casterlabs.rhs.protocol.websocket.WebsocketProtocol;
+import co.casterlabs.rhs.protocol.websocket.WebsocketResponse;
+import co.casterlabs.rhs.protocol.websocket.WebsocketSession;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Encodes and decodes {@link #BYTES_PER_OP} worth of websocket messages (or a
+ * single message, if it's bigger) against in-memory streams. Multiply the
+ * score by {@link #BYTES_PER_OP} to get payload bytes/s.
+ *
+ * <p>
+ * Encoding goes through {@link Websocket#send} with the fragmenting controlled
+ * by the connection's MTU. Decoding goes through the read loop, and can use
+ * unmasked frames to see what unmasking costs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebsocketCodecBenchmark {
+    public static final int BYTES_PER_OP = 1024 * 1024;
+
+    private static final byte[] UPGRADE_REQUEST = ("GET / HTTP/1.1\r\n"
+        + "Host: localhost\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+        + "Sec-WebSocket-Version: 13\r\n"
+        + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final HttpServerBuilder CONFIG = new HttpServerBuilder();
+    private static final FastLogger LOGGER = new FastLogger("WebsocketCodecBenchmark");
+
+    public static enum MessageType {
+        TEXT,
+        BINARY
+    }
+
+    @State(Scope.Thread)
+    public static class EncodeState {
+        @Param({
+                "10",
+                "1024",
+                "65536",
+                "1048576"
+        })
+        public int size;
+
+        @Param({
+                "TEXT",
+                "BINARY"
+        })
+        public MessageType type;
+
+        /**
+         * How many frames each message is split into.
+         */
+        @Param({
+                "1",
+                "4"
+        })
+        public int fragments;
+
+        private final CountingOutputStream output = new CountingOutputStream();
+        private final CountDownLatch hangUp = new CountDownLatch(1);
+        private Thread readLoop;
+
+        private Websocket websocket;
+        private int messages;
+        private String text;
+        private byte[] bytes;
+
+        @Setup
+        public void setup() throws Exception {
+            this.messages = Math.max(1, BYTES_PER_OP / this.size);
+            this.text = text(this.size);
+            this.bytes = this.text.getBytes(StandardCharsets.UTF_8);
+
+            // Never returns anything after the upgrade request, until we hang up.
+            InputStream in = new SequenceInputStream(new ByteArrayInputStream(UPGRADE_REQUEST), new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    try {
+                        hangUp.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return -1;
+                }
+            });
+
+            int mtu = this.fragments == 1 ? Integer.MAX_VALUE : (this.size + this.fragments - 1) / this.fragments;
+            RHSConnection connection = RHSConnection.accept(
+                mtu, 0, 0,
+                LOGGER,
+                new OverzealousInputStream(in), this.output,
+                "127.0.0.1", 80,
+                null,
+                CONFIG
+            );
+
+            WebsocketProtocol protocol = new WebsocketProtocol(null, 0); // No compression or pings.
+            WebsocketSession session = protocol.accept(connection);
+
+            CountDownLatch opened = new CountDownLatch(1);
+            WebsocketResponse response = WebsocketResponse.accept(
+                new WebsocketListener() {
+                    @Override
+                    public void onOpen(Websocket websocket) {
+                        EncodeState.this.websocket = websocket;
+                        opened.countDown();
+                    }
+                },
+                null
+            );
+
+            this.readLoop = new Thread(() -> {
+                try {
+                    protocol.process(session, response, connection);
+                } catch (Exception ignored) {}
+            });
+            this.readLoop.setDaemon(true);
+            this.readLoop.start();
+            opened.await();
+        }
+
+        @TearDown
+        public void teardown() throws InterruptedException {
+            this.hangUp.countDown();
+            this.readLoop.join();
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class DecodeState {
+        @Param({
+                "10",
+                "1024",
+                "65536",
+                "1048576"
+        })
+        public int size;
+
+        @Param({
+                "TEXT",
+                "BINARY"
+        })
+        public MessageType type;
+
+        /**
+         * How many frames each message is split into.
+         */
+        @Param({
+                "1",
+                "4"
+        })
+        public int fragments;
+
+        /**
+         * Clients always mask, this is just to see what it costs.
+         */
+        @Param({
+                "true",
+                "false"
+        })
+        public boolean masked;
+
+        private final WebsocketProtocol protocol = new WebsocketProtocol(null, 0); // No compression or pings.
+        private int messages;
+        private byte[] input;
+
+        private int received;
+        private final WebsocketResponse response = WebsocketResponse.accept(
+            new WebsocketListener() {
+                @Override
+                public void onText(Websocket websocket, String message) {
+                    received++;
+                }
+
+                @Override
+                public void onBinary(Websocket websocket, byte[] bytes) {
+                    received++;
+                }
+            },
+            null
+        );
+
+        @Setup
+        public void setup() throws IOException {
+            this.messages = Math.max(1, BYTES_PER_OP / this.size);
+            byte[] payload = text(this.size).getBytes(StandardCharsets.UTF_8);
+            int op = this.type == MessageType.TEXT ? 1 : 2;
+            int fragmentSize = (payload.length + this.fragments - 1) / this.fragments;
+
+            Random random = new Random(0);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(UPGRADE_REQUEST);
+            for (int i = 0; i < this.messages; i++) {
+                for (int offset = 0; offset < payload.length; offset += fragmentSize) {
+                    int length = Math.min(fragmentSize, payload.length - offset);
+                    boolean fin = offset + length == payload.length;
+                    writeFrame(out, fin, offset == 0 ? op : 0, payload, offset, length, this.masked ? random : null);
+                }
+            }
+
+            this.input = out.toByteArray();
+        }
+
+    }
+
+    @Benchmark
+    public long encode(EncodeState state) throws IOException {
+        state.output.count = 0;
+        for (int i = 0; i < state.messages; i++) {
+            if (state.type == MessageType.TEXT) {
+                state.websocket.send(state.text);
+            } else {
+                state.websocket.send(state.bytes);
+            }
+        }
+        return state.output.count;
+    }
+
+    @Benchmark
+    public int decode(DecodeState state) throws Exception {
+        RHSConnection connection = RHSConnection.accept(
+            1440, 0, 0,
+            LOGGER,
+            new OverzealousInputStream(new ByteArrayInputStream(state.input)), OutputStream.nullOutputStream(),
+            "127.0.0.1", 80,
+            null,
+            CONFIG
+        );
+
+        state.received = 0;
+        WebsocketSession session = state.protocol.accept(connection);
+        state.protocol.process(session, state.response, connection); // Returns once the input runs dry.
+
+        if (state.received != state.messages) {
+            throw new IllegalStateException("Only got " + state.received + " of " + state.messages + " messages.");
+        }
+        return state.received;
+    }
+
+    /**
+     * Mostly ASCII with the odd multi-byte character, exactly size bytes once
+     * encoded.
+     */
+    private static String text(int size) {
+        String pattern = "The quick brown fox jumps over the lazy dög, ünïcödé → ✓ ";
+        StringBuilder sb = new StringBuilder();
+        int length = 0;
+        for (int idx = 0; length < size - 3; idx = (idx + 1) % pattern.length()) {
+            char c = pattern.charAt(idx);
+            sb.append(c);
+            length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        while (length < size) {
+            sb.append('.');
+            length++;
+        }
+        return sb.toString();
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, boolean fin, int op, byte[] payload, int offset, int length, Random maskRandom) {
+        out.write((fin ? 0b10000000 : 0) | op);
+
+        int maskBit = maskRandom == null ? 0 : 0b10000000;
+        if (length > 65535) {
+            out.write(maskBit | 127);
+            for (int idx = 7; idx >= 0; idx--) {
+                out.write((int) ((long) length >>> (idx * 8)));
+            }
+        } else if (length > 125) {
+            out.write(maskBit | 126);
+            out.write(length >> 8);
+            out.write(length);
+        } else {
+            out.write(maskBit | length);
+        }
+
+        if (maskRandom == null) {
+            out.write(payload, offset, length);
+        } else {
+            byte[] mask = new byte[4];
+            maskRandom.nextBytes(mask);
+            out.write(mask, 0, 4);
+            for (int idx = 0; idx < length; idx++) {
+                out.write(payload[offset + idx] ^ mask[idx % 4]);
+            }
+        }
+    }
+
+    /**
+     * Copies everything into a scratch buffer, like a socket's send buffer would,
+     * so that writing a large array isn't free.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final byte[] sink = new byte[64 * 1024];
+        private long count;
+
+        @Override
+        public void write(int b) {
+            this.sink[(int) (this.count++ % this.sink.length)] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+            while (len > 0) {
+                int chunk = Math.min(len, this.sink.length);
+                System.arraycopy(b, off, this.sink, 0, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+    }
+
+}
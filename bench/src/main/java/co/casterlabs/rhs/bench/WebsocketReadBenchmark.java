@@ -0,0 +1,147 @@
+package co.casterlabs.rhs.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.commons.io.streams.OverzealousInputStream;
+import co.casterlabs.rhs.HttpServerBuilder;
+import co.casterlabs.rhs.protocol.RHSConnection;
+import co.casterlabs.rhs.protocol.websocket.Websocket;
+import co.casterlabs.rhs.protocol.websocket.WebsocketListener;
+import co.casterlabs.rhs.protocol.websocket.WebsocketProtocol;
+import co.casterlabs.rhs.protocol.websocket.WebsocketResponse;
+import co.casterlabs.rhs.protocol.websocket.WebsocketSession;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Pushes a burst of small masked client frames through the websocket read
+ * loop, from an in-memory "socket". Each op is the whole burst, so multiply
+ * the score by {@link #FRAMES} to get frames/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebsocketReadBenchmark {
+    public static final int FRAMES = 1024;
+
+    private static final byte[] UPGRADE_REQUEST = ("GET / HTTP/1.1\r\n"
+        + "Host: localhost\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+        + "Sec-WebSocket-Version: 13\r\n"
+        + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    @Param({
+            "2",
+            "16",
+            "125"
+    })
+    public int frameSize;
+
+    /**
+     * How much a single socket read() hands back.
+     */
+    @Param({
+            "1440",
+            "65536"
+    })
+    public int readSize;
+
+    private final HttpServerBuilder config = new HttpServerBuilder();
+    private final FastLogger logger = new FastLogger("WebsocketReadBenchmark");
+    private final WebsocketProtocol protocol = new WebsocketProtocol(null, 0); // No compression or pings.
+
+    private byte[] input;
+    private int received;
+
+    private final WebsocketResponse response = WebsocketResponse.accept(
+        new WebsocketListener() {
+            @Override
+            public void onBinary(Websocket websocket, byte[] bytes) {
+                received++;
+            }
+        },
+        null
+    );
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(0);
+        byte[] payload = new byte[this.frameSize];
+        random.nextBytes(payload);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(UPGRADE_REQUEST);
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] mask = new byte[4];
+            random.nextBytes(mask);
+
+            out.write(0b10000010); // FIN, BINARY.
+            if (payload.length > 125) {
+                out.write(0b10000000 | 126);
+                out.write(payload.length >> 8);
+                out.write(payload.length);
+            } else {
+                out.write(0b10000000 | payload.length);
+            }
+            out.write(mask);
+            for (int idx = 0; idx < payload.length; idx++) {
+                out.write(payload[idx] ^ mask[idx % 4]);
+            }
+        }
+
+        this.input = out.toByteArray();
+    }
+
+    @Benchmark
+    public int readFrames() throws Exception {
+        final int readSize = this.readSize;
+        InputStream in = new ByteArrayInputStream(this.input) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, readSize));
+            }
+        };
+
+        RHSConnection connection = RHSConnection.accept(
+            1440, 0, 0,
+            this.logger,
+            new OverzealousInputStream(in), OutputStream.nullOutputStream(),
+            "127.0.0.1", 80,
+            null,
+            this.config
+        );
+
+        this.received = 0;
+        WebsocketSession session = this.protocol.accept(connection);
+        this.protocol.process(session, this.response, connection); // Returns once the input runs dry.
+
+        if (this.received != FRAMES) {
+            throw new IllegalStateException("Only got " + this.received + " frames.");
+        }
+        return this.received;
+    }
+
+}
@@ -1,6 +1,7 @@
 package co.casterlabs.rhs;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -10,18 +11,31 @@ import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLParameters;
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.X509ExtendedKeyManager;
 
+import org.jetbrains.annotations.Nullable;
+
 import co.casterlabs.commons.functional.tuples.Pair;
 import co.casterlabs.commons.io.streams.MTUOutputStream;
 import co.casterlabs.commons.io.streams.OverzealousInputStream;
@@ -30,7 +44,13 @@ import co.casterlabs.rhs.protocol.RHSConnection;
 import co.casterlabs.rhs.protocol.RHSProtocol;
 import co.casterlabs.rhs.protocol.exceptions.DropConnectionException;
 import co.casterlabs.rhs.protocol.exceptions.HttpException;
+import co.casterlabs.rhs.tls.DynamicRecordOutputStream;
+import co.casterlabs.rhs.tls.SSLEngineStreams;
+import co.casterlabs.rhs.tls.SSLEngineTransport;
+import co.casterlabs.rhs.tls.TLSMetrics;
+import co.casterlabs.rhs.util.BufferPool;
 import co.casterlabs.rhs.util.TaskExecutor;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import xyz.e3ndr.fastloggingframework.logging.FastLogger;
@@ -43,10 +63,14 @@ public class HttpServer {
 
     private List<Socket> connectedClients = Collections.synchronizedList(new LinkedList<>());
     private ServerSocket serverSocket;
+    private SSLParameters sslParameters; // Only when using SSLEngine.
     private TaskExecutor executor;
+    private ThreadPoolExecutor handshakeExecutor; // Only when using TLS.
 
     private @Getter boolean isSecure;
 
+    private final @Getter TLSMetrics tlsMetrics = new TLSMetrics();
+
     @Deprecated
     HttpServer(HttpServerBuilder config) {
         this.config = config;
@@ -100,13 +124,58 @@ public class HttpServer {
 
                 this.logger.info("Using the following Cipher Suites: %s.", cipherSuitesToUse);
 
-                SSLServerSocket socket = (SSLServerSocket) factory.createServerSocket();
-                socket.setEnabledCipherSuites(cipherSuitesToUse.toArray(new String[0]));
-                socket.setUseClientMode(false);
-                socket.setWantClientAuth(false);
-                socket.setNeedClientAuth(false);
+                SSLSessionContext sessionContext = this.config.ssl().getSslContext().getServerSessionContext();
+                if (this.config.sslSessionCacheSize() >= 0) {
+                    sessionContext.setSessionCacheSize(this.config.sslSessionCacheSize());
+                }
+                if (this.config.sslSessionTimeoutSeconds() >= 0) {
+                    sessionContext.setSessionTimeout(this.config.sslSessionTimeoutSeconds());
+                }
+                this.logger.debug("TLS session cache size: %d, timeout: %ds.", sessionContext.getSessionCacheSize(), sessionContext.getSessionTimeout());
+
+                // Let clients pick a protocol during the handshake, this saves them from
+                // having to Upgrade later.
+                List<String> applicationProtocols = this.alpnPreference();
+                this.logger.info("Using the following ALPN protocols: %s.", applicationProtocols);
+
+                if (this.config.sslEngine()) {
+                    // Connections are accepted in the clear and TLS is layered on in handle().
+                    this.sslParameters = new SSLParameters(
+                        cipherSuitesToUse.toArray(new String[0]),
+                        this.config.ssl().getProtocols().toArray(new String[0])
+                    );
+                    this.sslParameters.setApplicationProtocols(applicationProtocols.toArray(new String[0]));
+
+                    this.serverSocket = new ServerSocket();
+                } else {
+                    SSLServerSocket socket = (SSLServerSocket) factory.createServerSocket();
+                    socket.setEnabledCipherSuites(cipherSuitesToUse.toArray(new String[0]));
+                    socket.setUseClientMode(false);
+                    socket.setWantClientAuth(false);
+                    socket.setNeedClientAuth(false);
+
+                    SSLParameters parameters = socket.getSSLParameters();
+                    parameters.setApplicationProtocols(applicationProtocols.toArray(new String[0]));
+                    socket.setSSLParameters(parameters);
+
+                    this.serverSocket = socket;
+                }
+            }
 
-                this.serverSocket = factory.createServerSocket();
+            if (this.config.ssl() != null) {
+                AtomicInteger threadCount = new AtomicInteger();
+                this.handshakeExecutor = new ThreadPoolExecutor(
+                    this.config.sslHandshakeThreads(), this.config.sslHandshakeThreads(),
+                    30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(this.config.sslHandshakeQueueSize()),
+                    (r) -> {
+                        Thread t = new Thread(r);
+                        t.setName("RHS TLS Handshake #" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                );
+                this.handshakeExecutor.allowCoreThreadTimeOut(true);
             }
 
             this.serverSocket.setReuseAddress(true);
@@ -143,6 +212,11 @@ public class HttpServer {
             }
         } finally {
             this.serverSocket = null;
+
+            if (this.handshakeExecutor != null) {
+                this.handshakeExecutor.shutdownNow();
+                this.handshakeExecutor = null;
+            }
         }
     }
 
@@ -158,30 +232,172 @@ public class HttpServer {
     /* Internals        */
     /* ---------------- */
 
+    /**
+     * @return the ALPN ids of the registered protocols, most preferred first.
+     *         http/1.1 always goes last since everything else is an upgrade
+     *         over it.
+     */
+    private List<String> alpnPreference() {
+        List<String> alpnNames = new ArrayList<>();
+        for (Pair<RHSProtocol<?, ?, ?>, Object> pair : this.config.protocols().values()) {
+            String alpnName = pair.a().alpnName();
+            if (alpnName != null && !alpnNames.contains(alpnName)) {
+                alpnNames.add(alpnName);
+            }
+        }
+
+        alpnNames.sort(Comparator.comparing((String name) -> name.equals(RHSProtocol.HTTP_1_1_ALPN)).thenComparing(Comparator.naturalOrder()));
+        return alpnNames;
+    }
+
+    private @Nullable Pair<RHSProtocol<?, ?, ?>, Object> findAlpnProtocol(String alpnName) {
+        for (Pair<RHSProtocol<?, ?, ?>, Object> pair : this.config.protocols().values()) {
+            if (alpnName.equals(pair.a().alpnName())) {
+                return pair;
+            }
+        }
+        return null;
+    }
+
+    private @Nullable SSLEngineStreams createSSLEngineStreams(Socket clientSocket) throws IOException {
+        SSLParameters sslParameters = this.sslParameters;
+        if (sslParameters == null) return null;
+
+        SSLEngine engine = this.config.ssl().getSslContext().createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setSSLParameters(sslParameters);
+
+        return new SSLEngineStreams(
+            new SSLEngineTransport(engine, BufferPool.SHARED, SSLEngineTransport.DEFAULT_TASK_EXECUTOR),
+            clientSocket
+        );
+    }
+
     private void doAccept() {
         try {
             Socket clientSocket = this.serverSocket.accept();
             this.connectedClients.add(clientSocket);
 
-            this.executor.execute(() -> this.handle(clientSocket));
+            if (this.handshakeExecutor == null) {
+                this.executor.execute(() -> this.handle(clientSocket, null));
+                return;
+            }
+
+            try {
+                long acceptedAt = System.currentTimeMillis();
+                this.handshakeExecutor.execute(() -> this.handshake(clientSocket, acceptedAt));
+            } catch (RejectedExecutionException e) {
+                this.logger.debug("Too many pending TLS handshakes, dropping %s.", clientSocket.getRemoteSocketAddress());
+                this.tlsMetrics.recordFailure();
+                this.dropClient(clientSocket);
+            }
         } catch (Throwable t) {
             this.logger.severe("An error occurred whilst accepting a new connection:\n%s", t);
         }
     }
 
+    /**
+     * Runs the TLS handshake on the handshake executor, and only hands the socket
+     * over to {@link #executor} once it's done.
+     */
+    private void handshake(Socket clientSocket, long acceptedAt) {
+        long timeout = TimeUnit.SECONDS.toMillis(this.config.sslHandshakeTimeoutSeconds()) - (System.currentTimeMillis() - acceptedAt);
+        if (timeout <= 0) {
+            this.logger.debug("%s waited too long for a TLS handshake, dropping it.", clientSocket.getRemoteSocketAddress());
+            this.tlsMetrics.recordFailure();
+            this.dropClient(clientSocket);
+            return;
+        }
+
+        // The SO_TIMEOUT only covers individual reads, this covers clients that
+        // trickle the handshake in.
+        ScheduledFuture<?> watchdog = HANDSHAKE_WATCHDOG.schedule(() -> {
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {}
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        SSLEngineStreams tls = null;
+        try {
+            clientSocket.setSoTimeout((int) timeout);
+
+            long handshakeStartedAt = System.currentTimeMillis();
+            long handshakeStart = System.nanoTime();
+
+            TLSState state;
+            if (clientSocket instanceof SSLSocket) {
+                SSLSocket sslSocket = (SSLSocket) clientSocket;
+                sslSocket.startHandshake();
+
+                state = new TLSState(sslSocket.getSession(), sslSocket.getApplicationProtocol(), null);
+            } else {
+                tls = this.createSSLEngineStreams(clientSocket);
+
+                SSLSession ssl = tls.handshake();
+                state = new TLSState(ssl, tls.transport().engine().getApplicationProtocol(), tls);
+            }
+            long handshakeDuration = System.nanoTime() - handshakeStart;
+
+            if (!watchdog.cancel(false)) {
+                throw new SSLHandshakeException("Handshake timed out.");
+            }
+
+            this.executor.execute(() -> this.handle(clientSocket, state));
+
+            // Only count it once the connection is actually ours, anything that
+            // fails before this point gets recorded as a failure instead.
+            this.tlsMetrics.recordHandshake(state.session, handshakeStartedAt, handshakeDuration);
+        } catch (Throwable t) {
+            watchdog.cancel(false);
+            this.tlsMetrics.recordFailure();
+
+            // This is almost always the client's fault, so there's no point in being loud.
+            this.logger.debug("TLS handshake with %s failed:\n%s", clientSocket.getRemoteSocketAddress(), t);
+
+            if (tls != null) {
+                tls.transport().close();
+            }
+            this.dropClient(clientSocket);
+        }
+    }
+
+    private void dropClient(Socket clientSocket) {
+        this.connectedClients.remove(clientSocket);
+        try {
+            clientSocket.close();
+        } catch (IOException ignored) {}
+    }
+
     @SuppressWarnings("deprecation")
-    private void handle(Socket clientSocket) {
+    private void handle(Socket clientSocket, @Nullable TLSState tlsState) {
         int guessedMtu = guessMtu(clientSocket);
         String remoteAddress = formatAddress(clientSocket);
 
         this.logger.debug("New connection from %s", remoteAddress);
         FastLogger sessionLogger = this.logger.createChild("Connection: " + remoteAddress);
 
-        try (clientSocket) {
+        SSLEngineStreams tls = tlsState == null ? null : tlsState.streams;
+        try (clientSocket; tls) {
             TLSVersion tlsVersion = null;
-            if (clientSocket instanceof SSLSocket) {
-                SSLSession ssl = ((SSLSocket) clientSocket).getSession();
-                tlsVersion = TLSVersion.parse(ssl.getProtocol());
+            String alpnName = null;
+            InputStream rawInput = clientSocket.getInputStream();
+            OutputStream rawOutput = clientSocket.getOutputStream();
+
+            if (tlsState != null) {
+                tlsVersion = TLSVersion.parse(tlsState.session.getProtocol());
+                alpnName = tlsState.applicationProtocol;
+
+                if (tls != null) {
+                    rawInput = tls.inputStream();
+                    rawOutput = tls.outputStream();
+                }
+            }
+
+            Pair<RHSProtocol<?, ?, ?>, Object> alpnProtocol = null;
+            if (alpnName != null && !alpnName.isEmpty() && !alpnName.equals(RHSProtocol.HTTP_1_1_ALPN)) {
+                // HTTP/1.1 still goes through the usual Upgrade handling.
+                alpnProtocol = this.findAlpnProtocol(alpnName);
+                sessionLogger.debug("Negotiated %s via ALPN.", alpnName);
             }
 
             clientSocket.setTcpNoDelay(true);
@@ -192,8 +408,10 @@ public class HttpServer {
                 return;
             }
 
-            OverzealousInputStream input = new OverzealousInputStream(clientSocket.getInputStream());
-            OutputStream output = new MTUOutputStream(clientSocket.getOutputStream(), guessedMtu);
+            OverzealousInputStream input = new OverzealousInputStream(rawInput);
+            OutputStream output = tlsState == null //
+                ? new MTUOutputStream(rawOutput, guessedMtu)
+                : new DynamicRecordOutputStream(rawOutput, guessedMtu);
 
             while (true) {
                 int soTimeout = Math.max(this.config.keepAliveSeconds(), this.config.minSoTimeoutSeconds()) * 1000;
@@ -238,21 +456,32 @@ public class HttpServer {
                             break;
                         }
 
+                        case HTTP_2_0:
+                            // The only way to get here is the HTTP/2 connection preface
+                            // (PRI * HTTP/2.0), which means the client has prior knowledge.
+                            toUpgradeTo = Arrays.asList("h2c");
+                            break;
+
                         case HTTP_0_9:
                         case HTTP_1_0:
                             break;
                     }
 
-                    Pair<RHSProtocol<?, ?, ?>, Object> protocolPair = null;
-                    for (String protocolName : toUpgradeTo) {
-                        protocolPair = this.config.protocols().get(protocolName);
-                        if (protocolPair != null) {
-                            break;
+                    // A protocol negotiated via ALPN always wins, the client has already committed
+                    // to it during the handshake.
+                    Pair<RHSProtocol<?, ?, ?>, Object> protocolPair = alpnProtocol;
+                    if (protocolPair == null) {
+                        for (String protocolName : toUpgradeTo) {
+                            protocolPair = this.config.protocols().get(protocolName);
+                            if (protocolPair != null) {
+                                break;
+                            }
                         }
                     }
 
                     if (protocolPair == null) {
                         connection.respond(HttpStatus.adapt(400, "Unable to upgrade to any of the following protocols: " + toUpgradeTo));
+                        output.flush();
                         break;
                     }
 
@@ -266,6 +495,8 @@ public class HttpServer {
                     if (response == null) throw new DropConnectionException();
 
                     boolean acceptAnotherRequest = protocol.$process_cast(session, response, connection);
+                    output.flush(); // Make sure the tail end of the response goes out.
+
                     if (acceptAnotherRequest) {
                         // We're keeping the connection, let the while{} block do it's thing.
                         sessionLogger.debug("Keeping connection alive for subsequent requests.");
@@ -275,6 +506,7 @@ public class HttpServer {
                     }
                 } catch (HttpException e) {
                     connection.respond(e.status);
+                    output.flush();
                 }
             }
         } catch (DropConnectionException d) {
@@ -296,6 +528,13 @@ public class HttpServer {
     /* Helpers          */
     /* ---------------- */
 
+    @AllArgsConstructor
+    private static class TLSState {
+        private final SSLSession session;
+        private final @Nullable String applicationProtocol;
+        private final @Nullable SSLEngineStreams streams;
+    }
+
     private static String formatAddress(Socket clientSocket) {
         String address = //
             ((InetSocketAddress) clientSocket.getRemoteSocketAddress())
@@ -349,6 +588,16 @@ public class HttpServer {
         output.flush();
     }
 
+    private static final ScheduledThreadPoolExecutor HANDSHAKE_WATCHDOG = new ScheduledThreadPoolExecutor(1, (r) -> {
+        Thread t = new Thread(r);
+        t.setName("RHS TLS Handshake Watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    static {
+        HANDSHAKE_WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
     private static final Class<?>[] SILENCED_THROWABLES = {
             InterruptedException.class,
             SSLHandshakeException.class
@@ -366,7 +615,8 @@ public class HttpServer {
             "received fatal alert: internal_error",
             "socket write error",
             "broken pipe",
-            "reached end of stream before line was fully read"
+            "reached end of stream before line was fully read",
+            "reached end of stream during tls handshake"
     };
 
     private static boolean shouldIgnoreThrowable(Throwable t) {
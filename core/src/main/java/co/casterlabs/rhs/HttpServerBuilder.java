@@ -13,6 +13,7 @@ import org.jetbrains.annotations.Nullable;
 
 import co.casterlabs.commons.functional.tuples.Pair;
 import co.casterlabs.rhs.protocol.RHSProtocol;
+import co.casterlabs.rhs.tls.SSLEngineTransport;
 import co.casterlabs.rhs.util.TaskExecutor;
 import co.casterlabs.rhs.util.TaskExecutor.Task;
 import lombok.AllArgsConstructor;
@@ -30,6 +31,8 @@ import nl.altindag.ssl.SSLFactory;
 @SuppressWarnings("deprecation")
 public class HttpServerBuilder {
     private static final int DEFAULT_KEEP_ALIVE_SECONDS = 60;
+    private static final int DEFAULT_SSL_HANDSHAKE_QUEUE_SIZE = 512;
+    private static final int DEFAULT_SSL_HANDSHAKE_TIMEOUT_SECONDS = 10;
 
     @NonNull
     private @With String hostname;
@@ -39,6 +42,48 @@ public class HttpServerBuilder {
     @Nullable
     private @With SSLFactory ssl;
 
+    /**
+     * Whether to run TLS through an {@link SSLEngineTransport} rather than an
+     * {@link javax.net.ssl.SSLServerSocket}. Handshake tasks are then run on
+     * {@link SSLEngineTransport#DEFAULT_TASK_EXECUTOR} instead of the
+     * connection's thread.
+     */
+    private @With boolean sslEngine;
+
+    /**
+     * The maximum number of TLS sessions to keep around for resumption, 0 for no
+     * limit or negative to leave the JDK's default (20480) alone.
+     */
+    private @With int sslSessionCacheSize;
+
+    /**
+     * How long cached TLS sessions may be resumed for, 0 for no limit or
+     * negative to leave the JDK's default (24 hours) alone.
+     *
+     * @implNote Stateless session tickets are controlled JVM-wide, see
+     *           {@link co.casterlabs.rhs.util.SSLUtil#applySessionTickets(boolean)}.
+     */
+    private @With int sslSessionTimeoutSeconds;
+
+    /**
+     * The number of threads dedicated to TLS handshakes. Handshakes never run on
+     * {@link #taskExecutor}, so a burst of new clients can't starve existing
+     * ones.
+     */
+    private @With int sslHandshakeThreads;
+
+    /**
+     * How many connections may wait for a handshake thread before new ones are
+     * dropped.
+     */
+    private @With int sslHandshakeQueueSize;
+
+    /**
+     * How long a client has to complete the TLS handshake, including the time
+     * spent waiting in the queue.
+     */
+    private @With int sslHandshakeTimeoutSeconds;
+
     private @With boolean behindProxy;
 
     @NonNull
@@ -61,14 +106,17 @@ public class HttpServerBuilder {
      * 
      * @implSpec Value cannot be negative or 0.
      * 
-     * @implNote The websocket ping interval is always 5 seconds.
+     * @implNote The websocket ping interval defaults to 5 seconds, see
+     *           WebsocketProtocol.
      */
     private @With int minSoTimeoutSeconds;
 
     public HttpServerBuilder() {
         this(
             "::", 80,
-            null, false,
+            null, false, -1, -1,
+            Runtime.getRuntime().availableProcessors(), DEFAULT_SSL_HANDSHAKE_QUEUE_SIZE, DEFAULT_SSL_HANDSHAKE_TIMEOUT_SECONDS,
+            false,
             "Rakurai/latest",
             Collections.emptyMap(),
             (r) -> {
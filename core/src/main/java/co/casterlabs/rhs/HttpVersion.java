@@ -7,8 +7,8 @@ public enum HttpVersion {
     HTTP_0_9(0.9, "HTTP/0.9"),
     HTTP_1_0(1.0, "HTTP/1.0"),
     HTTP_1_1(1.1, "HTTP/1.1"),
-//    HTTP_2_0(2.0, "HTTP/2"),
-//    HTTP_3_0(3.0, "HTTP/3"), // Uncomment when we support them :^)
+    HTTP_2_0(2.0, "HTTP/2"),
+//    HTTP_3_0(3.0, "HTTP/3"), // Uncomment when we support it :^)
     ;
 
     public final double value;
@@ -42,11 +42,12 @@ public enum HttpVersion {
             case "1.1":
                 return HTTP_1_1;
 
-            // Uncomment when we support them :^)
-//            case "2":
-//            case "2.0":
-//                return HTTP_2_0;
-//
+            // This only ever shows up in the HTTP/2 connection preface.
+            case "2":
+            case "2.0":
+                return HTTP_2_0;
+
+            // Uncomment when we support it :^)
 //            case "3":
 //            case "3.0":
 //                return HTTP_3_0;
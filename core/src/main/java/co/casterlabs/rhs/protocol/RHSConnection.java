@@ -50,6 +50,13 @@ public class RHSConnection {
         t.start();
     }
 
+    /**
+     * @return the current time, formatted for use in the Date header.
+     */
+    public static String httpTime() {
+        return HTTP_TIME;
+    }
+
     private static final byte[] HTTP_1_1_CONTINUE_LINE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(RHSConnection.CHARSET);
 
     public final FastLogger logger;
@@ -95,11 +102,13 @@ public class RHSConnection {
                 String expect = this.headers.getSingleOrDefault("Expect", HeaderValue.EMPTY).raw();
                 if ("100-continue".equalsIgnoreCase(expect)) {
                     this.output.write(HTTP_1_1_CONTINUE_LINE);
+                    this.output.flush(); // The client won't send the body until it sees this.
                     this.logger.debug("Satisfied 100-continue");
                 }
                 break;
             }
 
+            case HTTP_2_0: // Handled by the protocol.
             case HTTP_1_0:
             case HTTP_0_9:
                 this.logger.debug("No expectations to satisfy");
@@ -108,6 +117,19 @@ public class RHSConnection {
         this.expectFulfilled = true;
     }
 
+    /**
+     * @return true, if the client sent an Expect: 100-continue that we haven't
+     *         satisfied yet. These clients hold off on sending the body until we
+     *         do.
+     */
+    public boolean isExpectingContinue() {
+        if (this.expectFulfilled) return false;
+        if (this.httpVersion != HttpVersion.HTTP_1_1) return false;
+
+        String expect = this.headers.getSingleOrDefault("Expect", HeaderValue.EMPTY).raw();
+        return "100-continue".equalsIgnoreCase(expect);
+    }
+
     public final List<String> hops() {
         List<String> hops = new LinkedList<>();
 
@@ -8,9 +8,23 @@ import co.casterlabs.rhs.protocol.exceptions.DropConnectionException;
 import co.casterlabs.rhs.protocol.exceptions.HttpException;
 
 public abstract class RHSProtocol<S, R, H> {
+    /**
+     * The ALPN protocol id for HTTP/1.1, which is what TLS connections fall back
+     * to when nothing else was negotiated.
+     */
+    public static final String HTTP_1_1_ALPN = "http/1.1";
 
     public abstract String name();
 
+    /**
+     * @return the ALPN protocol id (e.g <code>h2</code>) to negotiate on TLS
+     *         connections, or null if this protocol can't be negotiated that
+     *         way.
+     */
+    public @Nullable String alpnName() {
+        return null;
+    }
+
     public abstract S accept(RHSConnection connection) throws IOException, HttpException;
 
     /**
@@ -0,0 +1,186 @@
+package co.casterlabs.rhs.protocol.hpack;
+
+import java.nio.charset.StandardCharsets;
+
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.util.CaseInsensitiveMultiMap;
+
+/**
+ * An HPACK (RFC 7541) decoder. Keep one per connection and feed it header
+ * blocks in the order they were received, the dynamic table depends on it.
+ * 
+ * @implNote This is not thread safe.
+ */
+public class HpackDecoder {
+    public static final int DEFAULT_MAX_TABLE_SIZE = 4096;
+
+    private final _HpackDynamicTable table;
+
+    /**
+     * The most the encoder may size the table to, i.e what we advertised.
+     */
+    private int maxAllowedTableSize;
+
+    private byte[] scratch = new byte[256];
+
+    // Position in the current block, saves us from passing it around.
+    private byte[] block;
+    private int pos;
+    private int end;
+
+    public HpackDecoder() {
+        this(DEFAULT_MAX_TABLE_SIZE);
+    }
+
+    public HpackDecoder(int maxTableSize) {
+        this.maxAllowedTableSize = maxTableSize;
+        this.table = new _HpackDynamicTable(maxTableSize);
+    }
+
+    /**
+     * Call this when you advertise a new limit (e.g SETTINGS_HEADER_TABLE_SIZE)
+     * and it's been acknowledged.
+     */
+    public void setMaxTableSize(int maxTableSize) {
+        this.maxAllowedTableSize = maxTableSize;
+        if (this.table.maxSize() > maxTableSize) {
+            this.table.setMaxSize(maxTableSize);
+        }
+    }
+
+    public CaseInsensitiveMultiMap<HeaderValue> decode(byte[] block, int off, int len) throws HpackException {
+        CaseInsensitiveMultiMap.Builder<HeaderValue> headers = new CaseInsensitiveMultiMap.Builder<>();
+        this.decode(block, off, len, (name, value) -> headers.put(name, new HeaderValue(value)));
+        return headers.build();
+    }
+
+    /**
+     * Decodes a complete header block (i.e HEADERS + CONTINUATIONs), handing each
+     * field to the consumer in order.
+     */
+    public void decode(byte[] block, int off, int len, HeaderConsumer consumer) throws HpackException {
+        this.block = block;
+        this.pos = off;
+        this.end = off + len;
+
+        try {
+            boolean fieldSeen = false;
+
+            while (this.pos < this.end) {
+                int b = block[this.pos] & 0xff;
+
+                if ((b & 0x80) != 0) {
+                    // Indexed Header Field.
+                    int index = this.readInt(7);
+                    if (index == 0) throw new HpackException("Invalid index: 0");
+
+                    consumer.accept(this.nameAt(index), this.valueAt(index));
+                    fieldSeen = true;
+                } else if ((b & 0x40) != 0) {
+                    // Literal Header Field with Incremental Indexing.
+                    String name = this.readName(6);
+                    String value = this.readString();
+                    this.table.add(name, value);
+
+                    consumer.accept(name, value);
+                    fieldSeen = true;
+                } else if ((b & 0x20) != 0) {
+                    // Dynamic Table Size Update, only allowed at the start of a block.
+                    if (fieldSeen) throw new HpackException("Table size update after a header field.");
+
+                    int size = this.readInt(5);
+                    if (size > this.maxAllowedTableSize) {
+                        throw new HpackException("Table size update exceeds the allowed maximum.");
+                    }
+                    this.table.setMaxSize(size);
+                } else {
+                    // Literal Header Field without Indexing (0000) or Never Indexed (0001).
+                    String name = this.readName(4);
+                    String value = this.readString();
+
+                    consumer.accept(name, value);
+                    fieldSeen = true;
+                }
+            }
+        } finally {
+            this.block = null; // Free.
+        }
+    }
+
+    private String readName(int prefix) throws HpackException {
+        int index = this.readInt(prefix);
+        return index == 0 ? this.readString() : this.nameAt(index);
+    }
+
+    private String nameAt(int index) throws HpackException {
+        if (index <= _HpackStaticTable.LENGTH) {
+            return _HpackStaticTable.ENTRIES[index][0];
+        }
+
+        index -= _HpackStaticTable.LENGTH + 1;
+        if (index >= this.table.length()) throw new HpackException("Invalid index: " + index);
+        return this.table.name(index);
+    }
+
+    private String valueAt(int index) throws HpackException {
+        if (index <= _HpackStaticTable.LENGTH) {
+            return _HpackStaticTable.ENTRIES[index][1];
+        }
+
+        index -= _HpackStaticTable.LENGTH + 1;
+        if (index >= this.table.length()) throw new HpackException("Invalid index: " + index);
+        return this.table.value(index);
+    }
+
+    private int readInt(int prefix) throws HpackException {
+        int max = (1 << prefix) - 1;
+        int value = this.block[this.pos++] & max;
+        if (value < max) return value;
+
+        for (int shift = 0; shift <= 21; shift += 7) {
+            if (this.pos >= this.end) throw new HpackException("Truncated integer.");
+
+            int b = this.block[this.pos++] & 0xff;
+            value += (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                if (value < 0) break;
+                return value;
+            }
+        }
+
+        throw new HpackException("Integer overflow.");
+    }
+
+    private String readString() throws HpackException {
+        if (this.pos >= this.end) throw new HpackException("Truncated string.");
+
+        boolean huffman = (this.block[this.pos] & 0x80) != 0;
+        int length = this.readInt(7);
+        if (length > this.end - this.pos) throw new HpackException("Truncated string.");
+
+        String str;
+        if (huffman) {
+            int maxDecoded = length * 8 / 5;
+            if (this.scratch.length < maxDecoded) {
+                this.scratch = new byte[Math.max(maxDecoded, this.scratch.length * 2)];
+            }
+
+            int decoded = _HpackHuffman.decode(this.block, this.pos, length, this.scratch);
+            str = new String(this.scratch, 0, decoded, StandardCharsets.ISO_8859_1);
+        } else {
+            str = new String(this.block, this.pos, length, StandardCharsets.ISO_8859_1);
+        }
+
+        this.pos += length;
+        return str;
+    }
+
+    @FunctionalInterface
+    public static interface HeaderConsumer {
+
+        public void accept(String name, String value) throws HpackException;
+
+    }
+
+}
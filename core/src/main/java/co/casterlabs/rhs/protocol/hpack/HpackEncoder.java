@@ -0,0 +1,292 @@
+package co.casterlabs.rhs.protocol.hpack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.util.CaseInsensitiveMultiMap;
+
+/**
+ * An HPACK (RFC 7541) encoder. Keep one per connection, add the fields of a
+ * header block and then {@link #finish()} it. Blocks must be sent in the order
+ * they were finished, the dynamic table depends on it.
+ * 
+ * @implNote This is not thread safe.
+ */
+public class HpackEncoder {
+    public static final int DEFAULT_MAX_TABLE_SIZE = 4096;
+
+    /**
+     * Credentials shouldn't end up in any table, including an intermediary's.
+     */
+    private static final Set<String> NEVER_INDEXED = new HashSet<>(
+        Arrays.asList(
+            "authorization",
+            "proxy-authorization",
+            "cookie",
+            "set-cookie"
+        )
+    );
+
+    /**
+     * Values that rarely repeat, indexing them would just evict useful entries.
+     */
+    private static final Set<String> NOT_INDEXED = new HashSet<>(
+        Arrays.asList(
+            ":path",
+            "content-length",
+            "content-range",
+            "etag",
+            "last-modified",
+            "location"
+        )
+    );
+
+    private final int preferredTableSize;
+    private final Table table;
+
+    private final Map<Entry, Long> entryLookup = new HashMap<>();
+    private final Map<String, Long> nameLookup = new HashMap<>();
+    private final Entry probe = new Entry(null, null);
+
+    private int pendingMinTableSize = -1;
+    private boolean tableSizeChanged = false;
+
+    private byte[] buffer = new byte[512];
+    private int pos = 0;
+    private boolean blockStarted = false;
+
+    public HpackEncoder() {
+        this(DEFAULT_MAX_TABLE_SIZE);
+    }
+
+    /**
+     * @param maxTableSize how large we'd like our table to be, this is capped by
+     *                     {@link #setMaxTableSize(int)}.
+     */
+    public HpackEncoder(int maxTableSize) {
+        this.preferredTableSize = maxTableSize;
+        this.table = new Table(Math.min(maxTableSize, DEFAULT_MAX_TABLE_SIZE)); // The peer's limit starts at the default.
+
+        if (this.table.maxSize() != DEFAULT_MAX_TABLE_SIZE) {
+            this.pendingMinTableSize = this.table.maxSize();
+            this.tableSizeChanged = true;
+        }
+    }
+
+    /**
+     * Call this when the peer advertises a new limit (e.g
+     * SETTINGS_HEADER_TABLE_SIZE), in between blocks.
+     */
+    public void setMaxTableSize(int limit) {
+        int newSize = Math.min(limit, this.preferredTableSize);
+        if (newSize == this.table.maxSize()) return;
+
+        if (this.tableSizeChanged) {
+            this.pendingMinTableSize = Math.min(this.pendingMinTableSize, newSize);
+        } else {
+            this.pendingMinTableSize = newSize;
+            this.tableSizeChanged = true;
+        }
+        this.table.setMaxSize(newSize);
+    }
+
+    /* ---------------- */
+    /* Encoding         */
+    /* ---------------- */
+
+    public HpackEncoder add(String name, String value) {
+        this.startBlockIfNeeded();
+
+        name = name.toLowerCase(); // Returns the same instance when already lowercase.
+
+        // Exact matches, static first.
+        int staticIndex = _HpackStaticTable.indexOf(name, value);
+        if (staticIndex != -1) {
+            this.writeInt(0x80, 7, staticIndex);
+            return this;
+        }
+
+        Long sequence = this.lookup(name, value);
+        if (sequence != null) {
+            this.writeInt(0x80, 7, this.table.indexOf(sequence) + _HpackStaticTable.LENGTH + 1);
+            return this;
+        }
+
+        // Literals.
+        int nameIndex = _HpackStaticTable.indexOfName(name);
+        if (nameIndex == -1) {
+            Long nameSequence = this.nameLookup.get(name);
+            if (nameSequence != null) {
+                nameIndex = this.table.indexOf(nameSequence) + _HpackStaticTable.LENGTH + 1;
+            } else {
+                nameIndex = 0;
+            }
+        }
+
+        if (NEVER_INDEXED.contains(name)) {
+            this.writeInt(0x10, 4, nameIndex);
+        } else if (NOT_INDEXED.contains(name) || _HpackDynamicTable.entrySize(name, value) > this.table.maxSize() / 2) {
+            this.writeInt(0x00, 4, nameIndex);
+        } else {
+            this.writeInt(0x40, 6, nameIndex);
+            this.index(name, value);
+        }
+
+        if (nameIndex == 0) {
+            this.writeString(name);
+        }
+        this.writeString(value);
+        return this;
+    }
+
+    public HpackEncoder addAll(Map<String, String> headers) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            this.add(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    public HpackEncoder addAll(CaseInsensitiveMultiMap<HeaderValue> headers) {
+        for (Map.Entry<String, List<HeaderValue>> entry : headers.entrySet()) {
+            for (HeaderValue value : entry.getValue()) {
+                this.add(entry.getKey(), value.raw());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the encoded block, the next call to {@link #add(String, String)}
+     *         starts a new one.
+     */
+    public byte[] finish() {
+        this.startBlockIfNeeded(); // An empty block may still need to carry a size update.
+
+        byte[] result = Arrays.copyOf(this.buffer, this.pos);
+        this.pos = 0;
+        this.blockStarted = false;
+        return result;
+    }
+
+    private void startBlockIfNeeded() {
+        if (this.blockStarted) return;
+        this.blockStarted = true;
+
+        if (this.tableSizeChanged) {
+            // If we shrank and then grew, the decoder needs to see both.
+            if (this.pendingMinTableSize < this.table.maxSize()) {
+                this.writeInt(0x20, 5, this.pendingMinTableSize);
+            }
+            this.writeInt(0x20, 5, this.table.maxSize());
+            this.tableSizeChanged = false;
+        }
+    }
+
+    private Long lookup(String name, String value) {
+        this.probe.name = name;
+        this.probe.value = value;
+        this.probe.hash = name.hashCode() * 31 + value.hashCode();
+        return this.entryLookup.get(this.probe);
+    }
+
+    private void index(String name, String value) {
+        long sequence = this.table.add(name, value);
+        if (sequence == -1) return;
+
+        this.entryLookup.put(new Entry(name, value), sequence);
+        this.nameLookup.put(name, sequence);
+    }
+
+    private void writeString(String str) {
+        int length = str.length();
+        int huffmanLength = _HpackHuffman.encodedLength(str);
+
+        if (huffmanLength < length) {
+            this.writeInt(0x80, 7, huffmanLength);
+            this.ensureCapacity(huffmanLength);
+            this.pos = _HpackHuffman.encode(str, this.buffer, this.pos);
+        } else {
+            this.writeInt(0x00, 7, length);
+            this.ensureCapacity(length);
+            for (int idx = 0; idx < length; idx++) {
+                this.buffer[this.pos++] = (byte) _HpackHuffman.latin1(str.charAt(idx));
+            }
+        }
+    }
+
+    private void writeInt(int mask, int prefix, int value) {
+        this.ensureCapacity(6);
+
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            this.buffer[this.pos++] = (byte) (mask | value);
+            return;
+        }
+
+        this.buffer[this.pos++] = (byte) (mask | max);
+        value -= max;
+        while (value >= 0x80) {
+            this.buffer[this.pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.pos++] = (byte) value;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (this.pos + needed > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.pos + needed));
+        }
+    }
+
+    /* ---------------- */
+    /* Lookup           */
+    /* ---------------- */
+
+    private class Table extends _HpackDynamicTable {
+
+        Table(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        void onEvict(long sequence, String name, String value) {
+            // Only remove the mapping if it still points at this entry.
+            probe.name = name;
+            probe.value = value;
+            probe.hash = name.hashCode() * 31 + value.hashCode();
+            entryLookup.remove(probe, sequence);
+            nameLookup.remove(name, sequence);
+        }
+
+    }
+
+    private static class Entry {
+        String name;
+        String value;
+        int hash;
+
+        Entry(String name, String value) {
+            this.name = name;
+            this.value = value;
+            this.hash = name == null ? 0 : name.hashCode() * 31 + value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            Entry other = (Entry) obj;
+            return this.name.equals(other.name) && this.value.equals(other.value);
+        }
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package co.casterlabs.rhs.protocol.hpack;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a header block can't be decoded. The decoder's state is
+ * undefined afterwards, so this should be treated as fatal for the connection
+ * (COMPRESSION_ERROR in HTTP/2).
+ */
+public class HpackException extends IOException {
+    private static final long serialVersionUID = -2603640328785633934L;
+
+    public HpackException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,133 @@
+package co.casterlabs.rhs.protocol.hpack;
+
+/**
+ * The dynamic table from RFC 7541, Section 2.3.2. Entries are addressed by a
+ * sequence number (the n-th insertion), which stays valid until the entry is
+ * evicted.
+ */
+class _HpackDynamicTable {
+    static final int ENTRY_OVERHEAD = 32;
+
+    private String[] names = new String[16];
+    private String[] values = new String[16];
+
+    private long inserted = 0;
+    private int count = 0;
+
+    private int size = 0;
+    private int maxSize;
+
+    _HpackDynamicTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the amount of entries.
+     */
+    int length() {
+        return this.count;
+    }
+
+    int maxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * @param idx 0 for the newest entry.
+     */
+    String name(int idx) {
+        return this.names[(int) (this.inserted - 1 - idx) & (this.names.length - 1)];
+    }
+
+    /**
+     * @param idx 0 for the newest entry.
+     */
+    String value(int idx) {
+        return this.values[(int) (this.inserted - 1 - idx) & (this.values.length - 1)];
+    }
+
+    /**
+     * @return the index (0 for the newest entry) of the entry with the given
+     *         sequence number, or -1 if it has been evicted.
+     */
+    int indexOf(long sequence) {
+        long idx = this.inserted - 1 - sequence;
+        return idx < this.count ? (int) idx : -1;
+    }
+
+    /**
+     * @return the sequence number of the new entry, or -1 if it was too large to
+     *         fit (which empties the table).
+     */
+    long add(String name, String value) {
+        int entrySize = entrySize(name, value);
+        if (entrySize > this.maxSize) {
+            while (this.count > 0) {
+                this.evictOldest();
+            }
+            return -1;
+        }
+
+        while (this.size + entrySize > this.maxSize) {
+            this.evictOldest();
+        }
+
+        if (this.count == this.names.length) {
+            this.grow();
+        }
+
+        long sequence = this.inserted++;
+        int slot = (int) sequence & (this.names.length - 1);
+        this.names[slot] = name;
+        this.values[slot] = value;
+        this.count++;
+        this.size += entrySize;
+        return sequence;
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        while (this.size > this.maxSize) {
+            this.evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        long sequence = this.inserted - this.count;
+        int slot = (int) sequence & (this.names.length - 1);
+        String name = this.names[slot];
+        String value = this.values[slot];
+
+        this.names[slot] = null;
+        this.values[slot] = null;
+        this.count--;
+        this.size -= entrySize(name, value);
+
+        this.onEvict(sequence, name, value);
+    }
+
+    /**
+     * Hook for the encoder, which keeps a reverse lookup.
+     */
+    void onEvict(long sequence, String name, String value) {}
+
+    private void grow() {
+        String[] newNames = new String[this.names.length * 2];
+        String[] newValues = new String[this.values.length * 2];
+
+        for (long sequence = this.inserted - this.count; sequence < this.inserted; sequence++) {
+            int oldSlot = (int) sequence & (this.names.length - 1);
+            int newSlot = (int) sequence & (newNames.length - 1);
+            newNames[newSlot] = this.names[oldSlot];
+            newValues[newSlot] = this.values[oldSlot];
+        }
+
+        this.names = newNames;
+        this.values = newValues;
+    }
+
+    static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+}
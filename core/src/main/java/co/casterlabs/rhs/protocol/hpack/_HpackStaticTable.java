@@ -0,0 +1,110 @@
+package co.casterlabs.rhs.protocol.hpack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The static table from RFC 7541, Appendix A.
+ */
+class _HpackStaticTable {
+    static final String[][] ENTRIES = {
+            null, // The table is 1-indexed.
+            { ":authority", "" },
+            { ":method", "GET" },
+            { ":method", "POST" },
+            { ":path", "/" },
+            { ":path", "/index.html" },
+            { ":scheme", "http" },
+            { ":scheme", "https" },
+            { ":status", "200" },
+            { ":status", "204" },
+            { ":status", "206" },
+            { ":status", "304" },
+            { ":status", "400" },
+            { ":status", "404" },
+            { ":status", "500" },
+            { "accept-charset", "" },
+            { "accept-encoding", "gzip, deflate" },
+            { "accept-language", "" },
+            { "accept-ranges", "" },
+            { "accept", "" },
+            { "access-control-allow-origin", "" },
+            { "age", "" },
+            { "allow", "" },
+            { "authorization", "" },
+            { "cache-control", "" },
+            { "content-disposition", "" },
+            { "content-encoding", "" },
+            { "content-language", "" },
+            { "content-length", "" },
+            { "content-location", "" },
+            { "content-range", "" },
+            { "content-type", "" },
+            { "cookie", "" },
+            { "date", "" },
+            { "etag", "" },
+            { "expect", "" },
+            { "expires", "" },
+            { "from", "" },
+            { "host", "" },
+            { "if-match", "" },
+            { "if-modified-since", "" },
+            { "if-none-match", "" },
+            { "if-range", "" },
+            { "if-unmodified-since", "" },
+            { "last-modified", "" },
+            { "link", "" },
+            { "location", "" },
+            { "max-forwards", "" },
+            { "proxy-authenticate", "" },
+            { "proxy-authorization", "" },
+            { "range", "" },
+            { "referer", "" },
+            { "refresh", "" },
+            { "retry-after", "" },
+            { "server", "" },
+            { "set-cookie", "" },
+            { "strict-transport-security", "" },
+            { "transfer-encoding", "" },
+            { "user-agent", "" },
+            { "vary", "" },
+            { "via", "" },
+            { "www-authenticate", "" },
+    };
+
+    static final int LENGTH = ENTRIES.length - 1;
+
+    /**
+     * name -> index of the first entry with that name. Entries with the same
+     * name are next to each other.
+     */
+    private static final Map<String, Integer> NAME_INDEX = new HashMap<>();
+
+    static {
+        for (int idx = LENGTH; idx > 0; idx--) {
+            NAME_INDEX.put(ENTRIES[idx][0], idx); // Iterating backwards leaves us with the lowest index.
+        }
+    }
+
+    /**
+     * @return the index of the exact entry, or -1.
+     */
+    static int indexOf(String name, String value) {
+        Integer first = NAME_INDEX.get(name);
+        if (first == null) return -1;
+
+        for (int idx = first; idx <= LENGTH && ENTRIES[idx][0].equals(name); idx++) {
+            if (ENTRIES[idx][1].equals(value)) return idx;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first entry with the name, or -1.
+     */
+    static int indexOfName(String name) {
+        Integer first = NAME_INDEX.get(name);
+        return first == null ? -1 : first;
+    }
+
+}
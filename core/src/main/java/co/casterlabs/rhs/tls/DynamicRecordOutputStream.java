@@ -0,0 +1,153 @@
+package co.casterlabs.rhs.tls;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import lombok.NonNull;
+
+/**
+ * Gathers writes into TLS record sized pieces. Both
+ * {@link javax.net.ssl.SSLSocket} and {@link SSLEngineTransport} turn each
+ * piece into one record.
+ *
+ * <p>
+ * A fresh connection (or one that has been idle for a while) gets small
+ * records that fit in a single TCP segment, so the client can decrypt and
+ * start acting on the first bytes without waiting for the rest of a 16KB
+ * record to arrive. Once enough has been written for throughput to matter,
+ * records grow to the 16KB maximum to cut down on per-record overhead.
+ *
+ * @implNote Writes are buffered until a record fills up or {@link #flush()} is
+ *           called, so callers <b>MUST</b> flush once they're done writing.
+ */
+public class DynamicRecordOutputStream extends OutputStream {
+    public static final int MAX_RECORD_SIZE = 16384;
+
+    /**
+     * Worst case per-record overhead: 5 byte header, 8 byte explicit nonce
+     * (TLSv1.2 GCM) and 16 byte tag.
+     */
+    public static final int RECORD_OVERHEAD = 29;
+
+    /**
+     * How much to write with small records before switching to large ones.
+     * Roughly what TCP slow start gets through in the first few round trips.
+     */
+    public static final long DEFAULT_BOOST_THRESHOLD = 128 * 1024;
+
+    /**
+     * How long the connection must sit idle before we go back to small records.
+     */
+    public static final long DEFAULT_IDLE_RESET_MILLIS = 1000;
+
+    private final OutputStream out;
+    private final int smallRecordSize;
+    private final long boostThreshold;
+    private final long idleResetNanos;
+
+    private final byte[] buffer = new byte[MAX_RECORD_SIZE];
+    private int bufferPos = 0;
+
+    private long writtenSinceReset = 0;
+    private long lastWrite = System.nanoTime();
+
+    /**
+     * @param mtu the usable payload size of a packet, excluding IP headers.
+     */
+    public DynamicRecordOutputStream(@NonNull OutputStream out, int mtu) {
+        this(out, mtu, DEFAULT_BOOST_THRESHOLD, DEFAULT_IDLE_RESET_MILLIS);
+    }
+
+    public DynamicRecordOutputStream(@NonNull OutputStream out, int mtu, long boostThreshold, long idleResetMillis) {
+        this.out = out;
+        this.boostThreshold = boostThreshold;
+        this.idleResetNanos = TimeUnit.MILLISECONDS.toNanos(idleResetMillis);
+
+        // Leave room for the TCP header (20 bytes + 12 for timestamps) and the record overhead.
+        this.smallRecordSize = Math.max(512, Math.min(MAX_RECORD_SIZE, mtu - 32 - RECORD_OVERHEAD));
+    }
+
+    /**
+     * @return the size of the next record.
+     */
+    public int recordSize() {
+        return this.writtenSinceReset < this.boostThreshold ? this.smallRecordSize : MAX_RECORD_SIZE;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.checkIdle();
+
+        this.buffer[this.bufferPos++] = (byte) b;
+        if (this.bufferPos >= this.recordSize()) {
+            this.emitRecord();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.checkIdle();
+
+        while (len > 0) {
+            int recordSize = this.recordSize();
+            if (this.bufferPos >= recordSize) {
+                // The record size shrank after an idle reset.
+                this.emitRecord();
+            }
+
+            if (this.bufferPos == 0 && len >= recordSize) {
+                // Nothing is pending, so there's no need to copy a full record.
+                this.out.write(b, off, recordSize);
+                this.writtenSinceReset += recordSize;
+                off += recordSize;
+                len -= recordSize;
+                continue;
+            }
+
+            int toCopy = Math.min(len, recordSize - this.bufferPos);
+            System.arraycopy(b, off, this.buffer, this.bufferPos, toCopy);
+            this.bufferPos += toCopy;
+            off += toCopy;
+            len -= toCopy;
+
+            if (this.bufferPos >= recordSize) {
+                this.emitRecord();
+            }
+        }
+    }
+
+    private void checkIdle() {
+        long now = System.nanoTime();
+        if (now - this.lastWrite > this.idleResetNanos) {
+            // The congestion window has likely collapsed, start over. Anything still
+            // buffered goes out with the next record regardless.
+            this.writtenSinceReset = 0;
+        }
+        this.lastWrite = now;
+    }
+
+    private void emitRecord() throws IOException {
+        if (this.bufferPos == 0) return;
+
+        this.out.write(this.buffer, 0, this.bufferPos);
+        this.writtenSinceReset += this.bufferPos;
+        this.bufferPos = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.emitRecord();
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            this.out.close();
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package co.casterlabs.rhs.tls;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSession;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+/**
+ * Drives an {@link SSLEngineTransport} over a blocking {@link Socket}, for use
+ * with the thread-per-connection model.
+ */
+@Accessors(fluent = true)
+public class SSLEngineStreams implements Closeable {
+    private final @Getter SSLEngineTransport transport;
+    private final Socket socket;
+
+    private InputStream socketIn;
+    private OutputStream socketOut;
+
+    private @Getter InputStream inputStream;
+    private @Getter OutputStream outputStream;
+
+    public SSLEngineStreams(@NonNull SSLEngineTransport transport, @NonNull Socket socket) {
+        this.transport = transport;
+        this.socket = socket;
+    }
+
+    /**
+     * Runs the handshake to completion, after which {@link #inputStream()} and
+     * {@link #outputStream()} become available.
+     */
+    public SSLSession handshake() throws IOException {
+        this.socketIn = this.socket.getInputStream();
+        this.socketOut = this.socket.getOutputStream();
+
+        try {
+            while (true) {
+                switch (this.transport.handshake()) {
+                    case DONE:
+                        this.inputStream = new TransportInputStream();
+                        this.outputStream = new TransportOutputStream();
+                        return this.transport.engine().getSession();
+
+                    case NEED_READ:
+                        if (this.transport.readFrom(this.socketIn) == -1) {
+                            throw new EOFException("Reached end of stream during TLS handshake.");
+                        }
+                        break;
+
+                    case NEED_WRITE:
+                        this.transport.writeTo(this.socketOut);
+                        break;
+
+                    case NEED_TASK:
+                        this.transport.awaitTasks();
+                        break;
+
+                    case CLOSED:
+                        throw new SSLHandshakeException("Engine closed during TLS handshake.");
+                }
+            }
+        } catch (SSLException e) {
+            // Try to let the peer know what went wrong.
+            try {
+                this.transport.closeOutbound();
+                this.transport.writeTo(this.socketOut);
+            } catch (IOException ignored) {}
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a close_notify (if the handshake was completed) and releases the
+     * transport's buffers. This does not close the socket.
+     */
+    @Override
+    public void close() {
+        try {
+            if (this.outputStream != null && !this.socket.isClosed()) {
+                this.transport.closeOutbound();
+                this.transport.writeTo(this.socketOut);
+            }
+        } catch (IOException ignored) {} finally {
+            this.transport.close();
+        }
+    }
+
+    private class TransportInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int read = this.read(this.single, 0, 1);
+            return read == -1 ? -1 : this.single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+            while (true) {
+                int read = transport.read(dst);
+                if (transport.hasPendingOutput()) {
+                    transport.writeTo(socketOut); // Replies to post-handshake messages.
+                }
+
+                if (read != 0) return read;
+
+                if (transport.readFrom(socketIn) == -1) {
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return transport.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+
+    }
+
+    private class TransportOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {
+                    (byte) b
+            }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer src = ByteBuffer.wrap(b, off, len);
+            synchronized (this) {
+                while (src.hasRemaining()) {
+                    if (transport.write(src) == 0) {
+                        transport.writeTo(socketOut);
+                    }
+                }
+                transport.writeTo(socketOut);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            socketOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,491 @@
+package co.casterlabs.rhs.tls;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.rhs.util.BufferPool;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * TLS on top of an {@link SSLEngine}. The transport itself never blocks: you
+ * feed it bytes from the network, it hands back application data and records
+ * to send. This makes it usable from an event loop as well as from a plain
+ * blocking socket (see {@link SSLEngineStreams}).
+ *
+ * <p>
+ * Packet and application buffers are borrowed from a {@link BufferPool} and
+ * given back on {@link #close()}. Delegated handshake tasks (the expensive
+ * bits, like signing) are run on a separate, bounded executor. While they run,
+ * {@link #handshake()} returns {@link Progress#NEED_TASK} and
+ * {@link #onTaskComplete(Runnable)} is invoked once they're done.
+ *
+ * @implNote Reading and writing are guarded by separate locks, so one thread
+ *           may read while others write.
+ */
+@Accessors(fluent = true)
+public class SSLEngineTransport implements Closeable {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * Used for delegated tasks when no other executor is given. Sized to the
+     * number of cores, with room for 1024 queued handshakes.
+     */
+    public static final ExecutorService DEFAULT_TASK_EXECUTOR = newTaskExecutor(Runtime.getRuntime().availableProcessors(), 1024);
+
+    private final @Getter SSLEngine engine;
+    private final BufferPool pool;
+    private final Executor taskExecutor;
+
+    /**
+     * Called (on the task executor) whenever a batch of delegated tasks has
+     * finished, so that an event loop can resume the handshake.
+     */
+    private volatile @Setter @Nullable Runnable onTaskComplete;
+
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+    private final Object taskLock = new Object();
+
+    // These are always left in "fill" mode, i.e position marks the end of the data.
+    private ByteBuffer netIn; // Guarded by readLock.
+    private ByteBuffer appIn; // Guarded by readLock.
+    private ByteBuffer netOut; // Guarded by writeLock.
+
+    private volatile boolean tasksPending = false;
+    private volatile boolean inboundClosed = false;
+    private volatile boolean released = false;
+
+    public SSLEngineTransport(@NonNull SSLEngine engine, @NonNull BufferPool pool, @NonNull Executor taskExecutor) throws SSLException {
+        this.engine = engine;
+        this.pool = pool;
+        this.taskExecutor = taskExecutor;
+
+        this.netIn = pool.take(engine.getSession().getPacketBufferSize());
+        this.appIn = pool.take(engine.getSession().getApplicationBufferSize());
+        this.netOut = pool.take(engine.getSession().getPacketBufferSize());
+
+        this.engine.beginHandshake();
+    }
+
+    public static ExecutorService newTaskExecutor(int threads, int maxQueued) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads,
+            30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(maxQueued),
+            (r) -> {
+                Thread t = new Thread(r);
+                t.setName("RHS TLS Task #" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /* ---------------- */
+    /* Handshake        */
+    /* ---------------- */
+
+    public static enum Progress {
+        /**
+         * The handshake is complete, you may start reading and writing.
+         */
+        DONE,
+
+        /**
+         * More bytes are needed from the network, see
+         * {@link SSLEngineTransport#readFrom(ReadableByteChannel)}.
+         */
+        NEED_READ,
+
+        /**
+         * There are records waiting to be sent, see
+         * {@link SSLEngineTransport#writeTo(WritableByteChannel)}.
+         */
+        NEED_WRITE,
+
+        /**
+         * Delegated tasks are running, wait for
+         * {@link SSLEngineTransport#onTaskComplete(Runnable)} or
+         * {@link SSLEngineTransport#awaitTasks()}.
+         */
+        NEED_TASK,
+
+        /**
+         * The engine was closed, most likely due to an alert.
+         */
+        CLOSED,
+    }
+
+    /**
+     * Advances the handshake as far as possible without blocking.
+     */
+    public Progress handshake() throws IOException {
+        synchronized (this.readLock) {
+            while (true) {
+                if (this.released) return Progress.CLOSED;
+                if (this.tasksPending) return Progress.NEED_TASK;
+
+                if (this.engine.isOutboundDone()) {
+                    return this.hasPendingOutput() ? Progress.NEED_WRITE : Progress.CLOSED;
+                }
+
+                switch (this.engine.getHandshakeStatus()) {
+                    case FINISHED:
+                    case NOT_HANDSHAKING:
+                        return this.hasPendingOutput() ? Progress.NEED_WRITE : Progress.DONE;
+
+                    case NEED_TASK:
+                        this.runDelegatedTasks();
+                        break;
+
+                    case NEED_WRAP:
+                        synchronized (this.writeLock) {
+                            SSLEngineResult result = this.wrap(EMPTY);
+                            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                                return Progress.NEED_WRITE;
+                            }
+                        }
+                        break;
+
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN: {
+                        // The peer is likely waiting on our flight before sending anything else.
+                        if (this.hasPendingOutput()) return Progress.NEED_WRITE;
+
+                        SSLEngineResult result = this.unwrap();
+                        switch (result.getStatus()) {
+                            case BUFFER_UNDERFLOW:
+                                return Progress.NEED_READ;
+
+                            case CLOSED:
+                                return this.hasPendingOutput() ? Progress.NEED_WRITE : Progress.CLOSED;
+
+                            default:
+                                break;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks until the currently running delegated tasks (if any) have finished.
+     */
+    public void awaitTasks() throws InterruptedIOException {
+        synchronized (this.taskLock) {
+            while (this.tasksPending) {
+                try {
+                    this.taskLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted whilst waiting for TLS tasks.");
+                }
+            }
+        }
+    }
+
+    private void runDelegatedTasks() throws SSLException {
+        List<Runnable> tasks = new ArrayList<>(2);
+        Runnable task;
+        while ((task = this.engine.getDelegatedTask()) != null) {
+            tasks.add(task);
+        }
+
+        this.tasksPending = true;
+        try {
+            this.taskExecutor.execute(() -> {
+                try {
+                    for (Runnable t : tasks) {
+                        t.run();
+                    }
+                } finally {
+                    synchronized (this.taskLock) {
+                        this.tasksPending = false;
+                        this.taskLock.notifyAll();
+                    }
+
+                    Runnable callback = this.onTaskComplete;
+                    if (callback != null) {
+                        callback.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.tasksPending = false;
+            throw new SSLException("Too many pending TLS handshakes.", e);
+        }
+    }
+
+    /* ---------------- */
+    /* Application data */
+    /* ---------------- */
+
+    /**
+     * Decrypts as much buffered data as possible into dst.
+     *
+     * @return the number of bytes read, 0 if more bytes are needed from the
+     *         network, or -1 if the peer closed the connection.
+     *
+     * @implNote Post-handshake messages (e.g key updates) may require a reply,
+     *           so check {@link #hasPendingOutput()} afterwards.
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        synchronized (this.readLock) {
+            if (this.released) return -1;
+
+            while (this.appIn.position() == 0) {
+                if (this.inboundClosed) return -1;
+
+                SSLEngineResult result = this.unwrap();
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    return 0;
+                }
+
+                HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+                if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+                    this.runDelegatedTasks();
+                    this.awaitTasks();
+                    handshakeStatus = this.engine.getHandshakeStatus();
+                }
+                if (handshakeStatus == HandshakeStatus.NEED_WRAP) {
+                    synchronized (this.writeLock) {
+                        this.wrap(EMPTY);
+                    }
+                }
+            }
+
+            this.appIn.flip();
+            int length = Math.min(this.appIn.remaining(), dst.remaining());
+            ByteBuffer slice = this.appIn.duplicate();
+            slice.limit(slice.position() + length);
+            dst.put(slice);
+            this.appIn.position(this.appIn.position() + length);
+            this.appIn.compact();
+            return length;
+        }
+    }
+
+    /**
+     * Encrypts as much of src as fits in the outbound buffer.
+     *
+     * @return the number of bytes consumed. 0 means the outbound buffer is full
+     *         and needs to be written out first.
+     */
+    public int write(ByteBuffer src) throws IOException {
+        synchronized (this.writeLock) {
+            if (this.released) throw new SSLException("Transport is closed.");
+
+            SSLEngineResult result = this.wrap(src);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("Engine is closed.");
+            }
+            return result.bytesConsumed();
+        }
+    }
+
+    /**
+     * @return the number of decrypted bytes waiting to be read.
+     */
+    public int available() {
+        synchronized (this.readLock) {
+            return this.released ? 0 : this.appIn.position();
+        }
+    }
+
+    /* ---------------- */
+    /* Network I/O      */
+    /* ---------------- */
+
+    public boolean hasPendingOutput() {
+        synchronized (this.writeLock) {
+            return !this.released && this.netOut.position() > 0;
+        }
+    }
+
+    /**
+     * @return the number of bytes read from the channel, or -1 at EOF.
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        synchronized (this.readLock) {
+            this.ensureInboundSpace();
+            return channel.read(this.netIn);
+        }
+    }
+
+    /**
+     * @see #readFrom(ReadableByteChannel)
+     */
+    public int readFrom(InputStream in) throws IOException {
+        synchronized (this.readLock) {
+            this.ensureInboundSpace();
+            int read = in.read(this.netIn.array(), this.netIn.arrayOffset() + this.netIn.position(), this.netIn.remaining());
+            if (read > 0) {
+                this.netIn.position(this.netIn.position() + read);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * @return the number of bytes written to the channel.
+     */
+    public int writeTo(WritableByteChannel channel) throws IOException {
+        synchronized (this.writeLock) {
+            if (this.released) return 0;
+
+            this.netOut.flip();
+            try {
+                return channel.write(this.netOut);
+            } finally {
+                this.netOut.compact();
+            }
+        }
+    }
+
+    /**
+     * Writes out all pending records.
+     *
+     * @see #writeTo(WritableByteChannel)
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        synchronized (this.writeLock) {
+            if (this.released || this.netOut.position() == 0) return;
+
+            out.write(this.netOut.array(), this.netOut.arrayOffset(), this.netOut.position());
+            out.flush();
+            this.netOut.clear();
+        }
+    }
+
+    /* ---------------- */
+    /* Lifecycle        */
+    /* ---------------- */
+
+    /**
+     * Queues a close_notify alert, write it out with
+     * {@link #writeTo(WritableByteChannel)} before closing the connection.
+     */
+    public void closeOutbound() throws IOException {
+        synchronized (this.writeLock) {
+            if (this.released) return;
+
+            this.engine.closeOutbound();
+            while (!this.engine.isOutboundDone()) {
+                SSLEngineResult result = this.wrap(EMPTY);
+                if (result.getStatus() != SSLEngineResult.Status.OK) break;
+            }
+        }
+    }
+
+    /**
+     * Returns all buffers to the pool. This does not send a close_notify, see
+     * {@link #closeOutbound()}.
+     */
+    @Override
+    public void close() {
+        synchronized (this.readLock) {
+            synchronized (this.writeLock) {
+                if (this.released) return;
+                this.released = true;
+
+                this.pool.give(this.netIn);
+                this.pool.give(this.appIn);
+                this.pool.give(this.netOut);
+                this.netIn = null;
+                this.appIn = null;
+                this.netOut = null;
+            }
+        }
+    }
+
+    /* ---------------- */
+    /* Internals        */
+    /* ---------------- */
+
+    // Caller must hold readLock.
+    private SSLEngineResult unwrap() throws SSLException {
+        while (true) {
+            SSLEngineResult result;
+            this.netIn.flip();
+            try {
+                result = this.engine.unwrap(this.netIn, this.appIn);
+            } finally {
+                this.netIn.compact();
+            }
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (this.appIn.position() > 0) {
+                        return result; // Let the caller drain it first.
+                    }
+                    this.appIn = this.grow(this.appIn, this.engine.getSession().getApplicationBufferSize());
+                    continue;
+
+                case CLOSED:
+                    this.inboundClosed = true;
+                    return result;
+
+                default:
+                    return result;
+            }
+        }
+    }
+
+    // Caller must hold writeLock.
+    private SSLEngineResult wrap(ByteBuffer src) throws SSLException {
+        while (true) {
+            SSLEngineResult result = this.engine.wrap(src, this.netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && this.netOut.position() == 0) {
+                this.netOut = this.grow(this.netOut, this.engine.getSession().getPacketBufferSize());
+                continue;
+            }
+            return result;
+        }
+    }
+
+    // Caller must hold readLock.
+    private void ensureInboundSpace() {
+        if (!this.netIn.hasRemaining()) {
+            this.netIn = this.grow(this.netIn, this.engine.getSession().getPacketBufferSize());
+        }
+    }
+
+    private ByteBuffer grow(ByteBuffer buffer, int atLeast) {
+        ByteBuffer bigger = this.pool.take(Math.max(atLeast, buffer.capacity() * 2));
+        buffer.flip();
+        bigger.put(buffer);
+        this.pool.give(buffer);
+        return bigger;
+    }
+
+}
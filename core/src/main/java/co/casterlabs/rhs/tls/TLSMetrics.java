@@ -0,0 +1,92 @@
+package co.casterlabs.rhs.tls;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Handshake counters for a TLS listener.
+ *
+ * @implNote Handshake times are wall-clock, so they include the round trips to
+ *           the client and any time spent waiting on the task executor.
+ */
+public class TLSMetrics {
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+    private final LongAdder failedHandshakes = new LongAdder();
+
+    private final LongAdder handshakeNanos = new LongAdder();
+    private final AtomicLong maxHandshakeNanos = new AtomicLong();
+
+    /**
+     * @param startedAt the {@link System#currentTimeMillis()} from just before the
+     *                  handshake began, used to tell whether the session was
+     *                  resumed.
+     * @param tookNanos how long the handshake took.
+     */
+    public void recordHandshake(SSLSession session, long startedAt, long tookNanos) {
+        if (isResumed(session, startedAt)) {
+            this.resumedHandshakes.increment();
+        } else {
+            this.fullHandshakes.increment();
+        }
+
+        this.handshakeNanos.add(tookNanos);
+        this.maxHandshakeNanos.accumulateAndGet(tookNanos, Math::max);
+    }
+
+    public void recordFailure() {
+        this.failedHandshakes.increment();
+    }
+
+    /**
+     * A resumed session is one that was created by an earlier handshake.
+     */
+    public static boolean isResumed(SSLSession session, long handshakeStartedAt) {
+        return session.getCreationTime() < handshakeStartedAt;
+    }
+
+    public long fullHandshakes() {
+        return this.fullHandshakes.sum();
+    }
+
+    public long resumedHandshakes() {
+        return this.resumedHandshakes.sum();
+    }
+
+    public long failedHandshakes() {
+        return this.failedHandshakes.sum();
+    }
+
+    /**
+     * @return the ratio of resumed to total successful handshakes, between 0 and
+     *         1.
+     */
+    public double resumptionRate() {
+        long resumed = this.resumedHandshakes();
+        long total = resumed + this.fullHandshakes();
+        return total == 0 ? 0 : resumed / (double) total;
+    }
+
+    public double averageHandshakeMillis() {
+        long total = this.fullHandshakes() + this.resumedHandshakes();
+        if (total == 0) return 0;
+        return this.handshakeNanos.sum() / (double) total / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double maxHandshakeMillis() {
+        return this.maxHandshakeNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "TLSMetrics(full=%d, resumed=%d, failed=%d, avg=%.2fms, max=%.2fms)",
+            this.fullHandshakes(), this.resumedHandshakes(), this.failedHandshakes(),
+            this.averageHandshakeMillis(), this.maxHandshakeMillis()
+        );
+    }
+
+}
@@ -0,0 +1,68 @@
+package co.casterlabs.rhs.util;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.NonNull;
+
+/**
+ * A pool of heap {@link ByteBuffer}s, bucketed by capacity. Buffers are
+ * handed out cleared and it's up to you to give them back once you're done
+ * with them.
+ *
+ * @implNote Buffers are kept on the heap so that they can be used with both
+ *           streams (via {@link ByteBuffer#array()}) and channels.
+ */
+public class BufferPool {
+    public static final BufferPool SHARED = new BufferPool(1024);
+
+    private final Map<Integer, Queue<ByteBuffer>> free = new ConcurrentHashMap<>();
+    private final AtomicInteger retained = new AtomicInteger();
+    private final int maxRetained;
+
+    /**
+     * @param maxRetained the maximum number of idle buffers to hold on to,
+     *                    across all sizes. Anything past that is left to the GC.
+     */
+    public BufferPool(int maxRetained) {
+        this.maxRetained = maxRetained;
+    }
+
+    public ByteBuffer take(int capacity) {
+        Queue<ByteBuffer> queue = this.free.get(capacity);
+        if (queue != null) {
+            ByteBuffer buffer = queue.poll();
+            if (buffer != null) {
+                this.retained.decrementAndGet();
+                return buffer.clear();
+            }
+        }
+
+        return ByteBuffer.allocate(capacity);
+    }
+
+    public void give(@NonNull ByteBuffer buffer) {
+        if (buffer.isReadOnly() || !buffer.hasArray()) return; // Not one of ours.
+
+        if (this.retained.incrementAndGet() > this.maxRetained) {
+            this.retained.decrementAndGet();
+            return;
+        }
+
+        this.free
+            .computeIfAbsent(buffer.capacity(), (c) -> new ConcurrentLinkedQueue<>())
+            .offer(buffer.clear());
+    }
+
+    /**
+     * @return the number of idle buffers currently held by the pool.
+     */
+    public int retained() {
+        return this.retained.get();
+    }
+
+}
@@ -27,4 +27,16 @@ public class SSLUtil {
         }
     }
 
+    /**
+     * Enables or disables stateless session tickets (RFC 5077, and their TLSv1.3
+     * equivalent). With tickets the server doesn't need to cache sessions to
+     * resume them, which helps when there's more than one server.
+     *
+     * @implNote This is a JVM-wide setting and the JDK only reads it once, so
+     *           this must be called before any TLS classes are used.
+     */
+    public static void applySessionTickets(boolean enabled) {
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", String.valueOf(enabled));
+    }
+
 }
@@ -0,0 +1,194 @@
+package co.casterlabs.rhs.util;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+/**
+ * A hashed timer wheel. A single thread ticks through a ring of buckets and
+ * runs whatever has expired, so scheduling a timeout per connection costs a
+ * small object rather than a thread. Scheduling and cancelling are O(1).
+ *
+ * <p>
+ * Timeouts fire on the tick after their deadline, so they are only as accurate
+ * as the tick duration. That's plenty for pings and idle deadlines.
+ *
+ * @implNote Tasks run on the wheel's thread. They <b>MUST NOT</b> block, hand
+ *           anything slow off to another thread.
+ */
+public class TimerWheel implements Closeable {
+    public static final TimerWheel SHARED = new TimerWheel("RHS Timer Wheel", 100, TimeUnit.MILLISECONDS, 512);
+
+    private final long tickNanos;
+    private final Timeout[] buckets; // Only touched by the worker.
+    private final int mask;
+
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startedAt = System.nanoTime();
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param ticksPerWheel rounded up to a power of two. Timeouts further away
+     *                      than one rotation just sit in their bucket for a few
+     *                      more laps.
+     */
+    public TimerWheel(@NonNull String name, long tickDuration, @NonNull TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("Tick duration must be positive.");
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) throw new IllegalArgumentException("Ticks per wheel must be between 1 and 2^30.");
+
+        int size = Integer.highestOneBit(ticksPerWheel);
+        if (size < ticksPerWheel) size <<= 1;
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+
+        this.worker = new Thread(this::run);
+        this.worker.setName(name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Runs the task once the delay has passed.
+     */
+    public Timeout schedule(@NonNull Runnable task, long delay, @NonNull TimeUnit unit) {
+        if (this.closed) throw new IllegalStateException("Timer wheel is closed.");
+
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        this.pending.add(timeout); // Picked up by the worker on its next tick.
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel. Anything that hasn't fired yet never will.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+
+        while (!this.closed) {
+            // Sleep until the end of this tick.
+            long deadline = this.startedAt + (tick + 1) * this.tickNanos;
+            for (long wait; (wait = deadline - System.nanoTime()) > 0;) {
+                LockSupport.parkNanos(this, wait);
+                if (this.closed) return;
+            }
+
+            this.transferPending(tick);
+            this.expire(tick);
+            tick++;
+        }
+    }
+
+    private void transferPending(long currentTick) {
+        // Bounded, so that a flood of new timeouts can't stall the tick.
+        for (int i = 0; i < 100_000; i++) {
+            Timeout timeout = this.pending.poll();
+            if (timeout == null) return;
+            if (timeout.state.get() != Timeout.STATE_PENDING) continue;
+
+            // Anything that's already due goes in the current bucket.
+            long dueTick = Math.max(currentTick, (timeout.deadline - this.startedAt) / this.tickNanos);
+            timeout.remainingRounds = (dueTick - currentTick) / this.buckets.length;
+
+            int index = (int) (dueTick & this.mask);
+            timeout.next = this.buckets[index];
+            this.buckets[index] = timeout;
+        }
+    }
+
+    private void expire(long tick) {
+        int index = (int) (tick & this.mask);
+
+        Timeout previous = null;
+        Timeout timeout = this.buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+
+            boolean remove;
+            if (timeout.state.get() != Timeout.STATE_PENDING) {
+                remove = true; // Cancelled.
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                remove = false;
+            } else {
+                remove = true;
+                timeout.fire();
+            }
+
+            if (remove) {
+                if (previous == null) {
+                    this.buckets[index] = next;
+                } else {
+                    previous.next = next;
+                }
+                timeout.next = null;
+            } else {
+                previous = timeout;
+            }
+
+            timeout = next;
+        }
+    }
+
+    public static class Timeout {
+        private static final int STATE_PENDING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+        // Only touched by the worker.
+        private long remainingRounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true, if the task was stopped before it ran.
+         */
+        public boolean cancel() {
+            return this.state.compareAndSet(STATE_PENDING, STATE_CANCELLED);
+        }
+
+        public boolean isCancelled() {
+            return this.state.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return this.state.get() == STATE_EXPIRED;
+        }
+
+        private void fire() {
+            if (!this.state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) return;
+
+            try {
+                this.task.run();
+            } catch (Throwable t) {
+                FastLogger.logStatic(LogLevel.SEVERE, "A timer task produced an exception:\n%s", t);
+            }
+        }
+
+    }
+
+}
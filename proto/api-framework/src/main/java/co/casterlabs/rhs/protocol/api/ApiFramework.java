@@ -34,6 +34,9 @@ public class ApiFramework {
     private List<_HttpEndpointWrapper> httpEndpoints = new ArrayList<>();
     private List<_WebsocketEndpointWrapper> websocketEndpoints = new ArrayList<>();
 
+    private volatile _EndpointRouter<_HttpEndpointWrapper> httpRouter = new _EndpointRouter<>(this.httpEndpoints);
+    private volatile _EndpointRouter<_WebsocketEndpointWrapper> websocketRouter = new _EndpointRouter<>(this.websocketEndpoints);
+
     public void register(@NonNull EndpointProvider provider) {
         for (Method method : provider.getClass().getMethods()) {
             if (method.isAnnotationPresent(HttpEndpoint.class)) {
@@ -68,6 +71,9 @@ public class ApiFramework {
         // Sort by priority. Higher value means it should be at the head of the list.
         this.httpEndpoints.sort((e1, e2) -> -Integer.compare(e1.priority(), e2.priority()));
         this.websocketEndpoints.sort((e1, e2) -> -Integer.compare(e1.priority(), e2.priority()));
+
+        this.httpRouter = new _EndpointRouter<>(this.httpEndpoints);
+        this.websocketRouter = new _EndpointRouter<>(this.websocketEndpoints);
     }
 
     /* ---------------- */
@@ -75,7 +81,7 @@ public class ApiFramework {
     /* ---------------- */
 
     public final HttpProtoHandler httpHandler = (session) -> {
-        for (_HttpEndpointWrapper handler : this.httpEndpoints) {
+        for (_HttpEndpointWrapper handler : this.httpRouter.match(session.uri().path)) {
             HttpResponse response = handler.handle(this, session);
             if (response != null) {
                 return response;
@@ -85,7 +91,7 @@ public class ApiFramework {
     };
 
     public final WebsocketHandler websocketHandler = (session) -> {
-        for (_WebsocketEndpointWrapper handler : this.websocketEndpoints) {
+        for (_WebsocketEndpointWrapper handler : this.websocketRouter.match(session.uri().path)) {
             WebsocketResponse response = handler.handle(this, session);
             if (response != null) {
                 return response;
@@ -0,0 +1,165 @@
+package co.casterlabs.rhs.protocol.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the endpoints whose path matches a request, in priority order. Paths
+ * are split on '/' and their literal and :param segments are put in a trie, so
+ * a lookup walks the request path once instead of running every endpoint's
+ * regex.
+ *
+ * <p>
+ * Paths that use any other regex features are kept at the node their leading
+ * literal and :param segments lead to, and are only checked against their
+ * pattern once a request gets that far.
+ */
+class _EndpointRouter<W extends _EndpointWrapper<?, ?, ?>> {
+    private static final Pattern PARAM_SEGMENT = Pattern.compile(":[A-Za-z0-9-_]+"); // Same as the one the wrapper replaces.
+    private static final String REGEX_CHARS = "\\^$.|?*+()[]{}:";
+    private static final String QUANTIFIER_CHARS = "?*+{";
+    private static final Comparator<Route<?>> ORDER = Comparator.comparingInt((r) -> r.order);
+
+    private final Node<W> root = new Node<>();
+
+    /**
+     * @param endpoints already sorted by priority.
+     */
+    _EndpointRouter(List<W> endpoints) {
+        for (int order = 0; order < endpoints.size(); order++) {
+            this.add(new Route<>(order, endpoints.get(order)));
+        }
+    }
+
+    private void add(Route<W> route) {
+        String path = route.endpoint.path;
+        String[] segments = path.split("/", -1);
+
+        // How many leading segments a matching request is guaranteed to have. An
+        // alternation could apply to anything, and a quantifier right after a '/'
+        // makes that '/' optional.
+        int prefix = 0;
+        if (path.indexOf('|') == -1) {
+            while (prefix < segments.length && isPlain(segments[prefix])) {
+                prefix++;
+            }
+            if (prefix > 0 && prefix < segments.length && startsWithQuantifier(segments[prefix])) {
+                prefix--;
+            }
+        }
+
+        Node<W> node = this.root;
+        for (int idx = 0; idx < prefix; idx++) {
+            String segment = segments[idx];
+            if (segment.startsWith(":")) {
+                if (node.param == null) {
+                    node.param = new Node<>();
+                }
+                node = node.param;
+            } else {
+                node = node.literals.computeIfAbsent(segment, (s) -> new Node<>());
+            }
+        }
+
+        if (prefix == segments.length) {
+            node.endpoints.add(route);
+        } else {
+            node.patterns.add(route);
+        }
+    }
+
+    /**
+     * @return the endpoints that match, highest priority first.
+     */
+    List<W> match(String path) {
+        List<Route<W>> matches = new ArrayList<>(4);
+        this.collect(this.root, path, 0, matches);
+
+        switch (matches.size()) {
+            case 0:
+                return Collections.emptyList();
+
+            case 1:
+                return Collections.singletonList(matches.get(0).endpoint);
+
+            default: {
+                matches.sort(ORDER);
+                List<W> result = new ArrayList<>(matches.size());
+                for (Route<W> route : matches) {
+                    result.add(route.endpoint);
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * @param start where the next segment starts, past the end of the path once
+     *              every segment has been consumed.
+     */
+    private void collect(Node<W> node, String path, int start, List<Route<W>> matches) {
+        for (Route<W> route : node.patterns) {
+            if (route.endpoint.pattern.matcher(path).matches()) {
+                matches.add(route);
+            }
+        }
+
+        if (start > path.length()) {
+            matches.addAll(node.endpoints);
+            return;
+        }
+
+        int end = path.indexOf('/', start);
+        if (end == -1) {
+            end = path.length();
+        }
+
+        if (!node.literals.isEmpty()) {
+            Node<W> child = node.literals.get(path.substring(start, end));
+            if (child != null) {
+                this.collect(child, path, end + 1, matches);
+            }
+        }
+
+        if (node.param != null) {
+            this.collect(node.param, path, end + 1, matches);
+        }
+    }
+
+    private static boolean isPlain(String segment) {
+        if (PARAM_SEGMENT.matcher(segment).matches()) return true;
+
+        for (int idx = 0; idx < segment.length(); idx++) {
+            if (REGEX_CHARS.indexOf(segment.charAt(idx)) != -1) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWithQuantifier(String segment) {
+        return !segment.isEmpty() && QUANTIFIER_CHARS.indexOf(segment.charAt(0)) != -1;
+    }
+
+    private static class Node<W> {
+        private final Map<String, Node<W>> literals = new HashMap<>();
+        private Node<W> param;
+
+        private final List<Route<W>> endpoints = new ArrayList<>(); // Paths that end here.
+        private final List<Route<W>> patterns = new ArrayList<>(); // Paths that need their regex from here on.
+    }
+
+    private static class Route<W> {
+        private final int order;
+        private final W endpoint;
+
+        private Route(int order, W endpoint) {
+            this.order = order;
+            this.endpoint = endpoint;
+        }
+    }
+
+}
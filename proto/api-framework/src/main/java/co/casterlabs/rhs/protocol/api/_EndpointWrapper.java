@@ -1,10 +1,18 @@
 package co.casterlabs.rhs.protocol.api;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.net.URLDecoder;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.BiFunction;
 import java.util.regex.Pattern;
 
 import org.jetbrains.annotations.Nullable;
@@ -25,19 +33,17 @@ import lombok.NonNull;
 import lombok.SneakyThrows;
 
 abstract class _EndpointWrapper<RESPONSE, SESSION, ATTACHMENT> {
-    private final Method method;
-    private final Object instance;
-    private final String path;
+    private final BiFunction<Object, Object, Object> invoker;
+    protected final String path;
 
     protected final Pattern pattern;
 
-    private String[] paramLabels; // Entry will be null if not a param
-    private boolean hasParams;
+    private final String[] paramLabels;
+    private final int[] paramSegments; // Which segment of the path each label is in.
 
     @SneakyThrows
     protected _EndpointWrapper(@NonNull Method method, @NonNull Object instance, @NonNull String path) {
-        this.method = method;
-        this.instance = instance;
+        this.invoker = bind(method, instance);
         this.path = path;
 
         this.pattern = Pattern.compile(
@@ -45,14 +51,17 @@ abstract class _EndpointWrapper<RESPONSE, SESSION, ATTACHMENT> {
         );
 
         String[] pathParts = path.split("/");
-        this.paramLabels = new String[pathParts.length];
+        List<String> labels = new ArrayList<>();
+        List<Integer> segments = new ArrayList<>();
         for (int i = 0; i < pathParts.length; i++) {
             String part = pathParts[i];
             if (part.startsWith(":")) {
-                this.hasParams = true;
-                this.paramLabels[i] = part.substring(1);
+                labels.add(part.substring(1));
+                segments.add(i);
             }
         }
+        this.paramLabels = labels.toArray(new String[0]);
+        this.paramSegments = segments.stream().mapToInt(Integer::intValue).toArray();
     }
 
     public abstract int priority();
@@ -64,21 +73,7 @@ abstract class _EndpointWrapper<RESPONSE, SESSION, ATTACHMENT> {
     @SuppressWarnings("unchecked")
     @SneakyThrows
     protected @Nullable RESPONSE handle(ApiFramework fw, SESSION session, String path) {
-        Map<String, String> uriParameters = new HashMap<>();
-
-        if (this.hasParams) {
-            String[] pathParts = path.split("/");
-            Map<String, String> params = new HashMap<>();
-            int minLength = Math.min(pathParts.length, this.paramLabels.length);
-            for (int i = 0; i < minLength; i++) {
-                if (this.paramLabels[i] == null) continue;
-                String part = URLDecoder.decode(pathParts[i], "UTF-8");
-                params.put(this.paramLabels[i], part);
-            }
-            uriParameters = Collections.unmodifiableMap(params);
-        } else {
-            uriParameters = Collections.emptyMap();
-        }
+        Map<String, String> uriParameters = this.paramLabels.length == 0 ? Collections.emptyMap() : new _UriParameters(path, this.paramLabels, this.paramSegments);
 
         // We run the preprocessor first, and if it returns a response, we skip the
         // handler method. This allows the post processor to run regardless of whether
@@ -98,7 +93,7 @@ abstract class _EndpointWrapper<RESPONSE, SESSION, ATTACHMENT> {
 
         EndpointData<ATTACHMENT> data = new EndpointData<>(uriParameters, this.path, preprocessorAttachment);
         if (response == null) {
-            response = (RESPONSE) this.method.invoke(this.instance, session, data);
+            response = (RESPONSE) this.invoker.apply(session, data);
         }
 
         Postprocessor<RESPONSE, SESSION, ATTACHMENT> postprocessor = fw.getOrInstantiatePostprocessor((Class<? extends Postprocessor<RESPONSE, SESSION, ATTACHMENT>>) this.postprocessor());
@@ -141,10 +136,6 @@ abstract class _EndpointWrapper<RESPONSE, SESSION, ATTACHMENT> {
                 return null;
             }
 
-            if (!this.pattern.matcher(session.uri().path).matches()) {
-                return null;
-            }
-
             return this.handle(fw, session, session.uri().path);
         }
 
@@ -178,13 +169,58 @@ abstract class _EndpointWrapper<RESPONSE, SESSION, ATTACHMENT> {
         }
 
         public WebsocketResponse handle(ApiFramework fw, WebsocketSession session) {
-            if (!this.pattern.matcher(session.uri().path).matches()) {
-                return null;
+            return this.handle(fw, session, session.uri().path);
+        }
+
+    }
+
+    /**
+     * Binds the endpoint method to its instance, so calling it is a plain interface
+     * call instead of a trip through {@link Method#invoke} (which boxes the
+     * arguments, checks access every time, and wraps whatever the method throws).
+     * Checked exceptions pass straight through the BiFunction.
+     */
+    @SuppressWarnings("unchecked")
+    private static BiFunction<Object, Object, Object> bind(Method method, Object instance) throws Throwable {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+
+        try {
+            // The lambda is defined alongside the endpoint's class, so that it can see it.
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            MethodHandle target = lookup.unreflect(method);
+
+            CallSite site = LambdaMetafactory.metafactory(
+                lookup,
+                "apply",
+                isStatic ? MethodType.methodType(BiFunction.class) : MethodType.methodType(BiFunction.class, method.getDeclaringClass()),
+                MethodType.methodType(Object.class, Object.class, Object.class),
+                target,
+                isStatic ? target.type() : target.type().dropParameterTypes(0, 1)
+            );
+
+            return isStatic ? (BiFunction<Object, Object, Object>) site.getTarget().invoke() : (BiFunction<Object, Object, Object>) site.getTarget().invoke(instance);
+        } catch (IllegalAccessException | LambdaConversionException | LinkageError e) {
+            // We can't define classes next to it (e.g it's in another module), settle for
+            // a method handle.
+            MethodHandle target = MethodHandles.lookup().unreflect(method);
+            if (!isStatic) {
+                target = target.bindTo(instance);
             }
+            MethodHandle handle = target.asType(MethodType.methodType(Object.class, Object.class, Object.class));
 
-            return this.handle(fw, session, session.uri().path);
+            return (session, data) -> {
+                try {
+                    return handle.invokeExact(session, data);
+                } catch (Throwable t) {
+                    throw sneakyThrow(t);
+                }
+            };
         }
+    }
 
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> RuntimeException sneakyThrow(Throwable t) throws T {
+        throw (T) t;
     }
 
     private static <T extends Enum<?>> boolean arrayContains(T value, T[] arr) {
@@ -0,0 +1,131 @@
+package co.casterlabs.rhs.protocol.api;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The :params of a request path. The labels and which segments they're in are
+ * worked out when the endpoint is registered, so all a request has to do is
+ * find where those segments start and end. Values are only URL-decoded once
+ * they're read.
+ */
+class _UriParameters extends AbstractMap<String, String> {
+    private final String path;
+    private final String[] labels;
+
+    private final int[] bounds; // Start and end of each label's segment, -1 if the path doesn't have it.
+    private final String[] values;
+    private final int size;
+
+    private Set<Entry<String, String>> entries;
+
+    /**
+     * @param segments which segment of the path each label is in, ascending.
+     */
+    _UriParameters(String path, String[] labels, int[] segments) {
+        this.path = path;
+        this.labels = labels;
+        this.bounds = new int[labels.length * 2];
+        this.values = new String[labels.length];
+
+        // Trailing empty segments don't count, same as String#split().
+        int trimmed = path.length();
+        while (trimmed > 0 && path.charAt(trimmed - 1) == '/') {
+            trimmed--;
+        }
+
+        int segment = 0;
+        int start = 0;
+        for (int idx = 0; idx < labels.length; idx++) {
+            while (segment < segments[idx]) {
+                int slash = path.indexOf('/', start);
+                if (slash == -1 || slash >= trimmed) break;
+                start = slash + 1;
+                segment++;
+            }
+
+            if (segment < segments[idx] || start >= trimmed) {
+                this.bounds[idx * 2] = -1;
+                continue;
+            }
+
+            int end = path.indexOf('/', start);
+            this.bounds[idx * 2] = start;
+            this.bounds[idx * 2 + 1] = end == -1 ? path.length() : end;
+        }
+
+        int size = 0;
+        for (int idx = 0; idx < labels.length; idx++) {
+            if (this.isVisible(idx)) size++;
+        }
+        this.size = size;
+    }
+
+    /**
+     * A label that shows up twice takes its value from the last segment that's
+     * present.
+     */
+    private boolean isVisible(int idx) {
+        if (this.bounds[idx * 2] == -1) return false;
+
+        for (int later = idx + 1; later < this.labels.length; later++) {
+            if (this.bounds[later * 2] != -1 && this.labels[later].equals(this.labels[idx])) return false;
+        }
+        return true;
+    }
+
+    private String value(int idx) {
+        String value = this.values[idx];
+        if (value == null) {
+            value = this.path.substring(this.bounds[idx * 2], this.bounds[idx * 2 + 1]);
+            if (value.indexOf('%') != -1 || value.indexOf('+') != -1) {
+                value = URLDecoder.decode(value, StandardCharsets.UTF_8);
+            }
+            this.values[idx] = value;
+        }
+        return value;
+    }
+
+    private int indexOf(Object label) {
+        for (int idx = this.labels.length - 1; idx >= 0; idx--) {
+            if (this.bounds[idx * 2] != -1 && this.labels[idx].equals(label)) return idx;
+        }
+        return -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int idx = this.indexOf(key);
+        return idx == -1 ? null : this.value(idx);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.indexOf(key) != -1;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (this.entries == null) {
+            Map<String, String> map = new LinkedHashMap<>();
+            for (int idx = 0; idx < this.labels.length; idx++) {
+                if (this.isVisible(idx)) {
+                    map.put(this.labels[idx], this.value(idx));
+                }
+            }
+            this.entries = Collections.unmodifiableMap(map).entrySet();
+        }
+        return this.entries;
+    }
+
+}
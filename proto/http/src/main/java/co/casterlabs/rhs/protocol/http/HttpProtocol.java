@@ -10,7 +10,6 @@ import java.util.Map;
 
 import org.jetbrains.annotations.Nullable;
 
-import co.casterlabs.commons.io.streams.LimitedInputStream;
 import co.casterlabs.commons.io.streams.NonCloseableOutputStream;
 import co.casterlabs.rhs.HttpStatus;
 import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
@@ -20,14 +19,43 @@ import co.casterlabs.rhs.protocol.RHSProtocol;
 import co.casterlabs.rhs.protocol.exceptions.DropConnectionException;
 import co.casterlabs.rhs.protocol.exceptions.HttpException;
 import co.casterlabs.rhs.protocol.http.HttpProtocol.HttpProtoHandler;
-
+import co.casterlabs.rhs.tls.DynamicRecordOutputStream;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.With;
+import lombok.experimental.Accessors;
+
+@Getter
+@AllArgsConstructor
+@Accessors(fluent = true)
 public class HttpProtocol extends RHSProtocol<HttpSession, HttpResponse, HttpProtoHandler> {
+    private static final long DEFAULT_MAX_DRAIN_BYTES = 2 /*mb*/ * 1024 * 1024;
+    private static final int DRAIN_BUFFER_SIZE = 8 /*kb*/ * 1024;
+
+    /**
+     * The most unread request body we will read and throw away in order to keep
+     * a connection alive. Bodies larger than this cause the connection to be
+     * closed instead.
+     * 
+     * @implSpec Negative to always drain, 0 to only keep connections whose body
+     *           was fully read by the handler.
+     */
+    private @With long maxDrainBytes;
+
+    public HttpProtocol() {
+        this(DEFAULT_MAX_DRAIN_BYTES);
+    }
 
     @Override
     public String name() {
         return "http";
     }
 
+    @Override
+    public String alpnName() {
+        return HTTP_1_1_ALPN;
+    }
+
     @Override
     public @Nullable HttpSession accept(RHSConnection connection) throws IOException, HttpException, DropConnectionException {
         // Retrieve the body, if any.
@@ -54,7 +82,7 @@ public class HttpProtocol extends RHSProtocol<HttpSession, HttpResponse, HttpPro
                     long lengthL = Long.parseLong(contentLength.raw());
                     if (lengthL == 0) break;
 
-                    bodyInput = new LimitedInputStream(connection.input, lengthL);
+                    bodyInput = new _FixedLengthInputStream(connection.input, lengthL);
                     connection.logger.debug("Detected fixed-length body.");
                 }
                 break;
@@ -107,12 +135,9 @@ public class HttpProtocol extends RHSProtocol<HttpSession, HttpResponse, HttpPro
                 shouldKeepAlive = false;
             }
 
-            if (shouldKeepAlive && session.body().present()) {
-                // Eat any remaining body bytes.
-                InputStream bodyStream = session.body().stream();
-                while (bodyStream.read() != -1) {
-                    bodyStream.skip(Long.MAX_VALUE); // Skip as much as possible.
-                }
+            if (shouldKeepAlive && session.body().present() && !this.drain(session, connection)) {
+                // We'd rather reconnect than sit here reading a huge body.
+                shouldKeepAlive = false;
             }
 
             long length = response.content.length();
@@ -196,7 +221,7 @@ public class HttpProtocol extends RHSProtocol<HttpSession, HttpResponse, HttpPro
                         new NonCloseableOutputStream(connection.output) // Non-encoded response
                     ) {
                         connection.respond(response.status, responseHeaders);
-                        _CompressionUtil.writeWithEncoding(contentEncoding, connection.guessedMtu, out, response.content);
+                        _CompressionUtil.writeWithEncoding(contentEncoding, transferChunkSize(connection), out, response.content);
                     }
                     break;
             }
@@ -205,6 +230,61 @@ public class HttpProtocol extends RHSProtocol<HttpSession, HttpResponse, HttpPro
         }
     }
 
+    /**
+     * Eats any remaining body bytes so that the next request can be read.
+     * 
+     * @return false, if the body was too large to drain and the connection should
+     *         be closed.
+     */
+    private boolean drain(HttpSession session, RHSConnection connection) throws IOException {
+        if (connection.isExpectingContinue()) {
+            // The client is waiting for us before sending the body, so we'd rather not
+            // ask for it just to throw it away.
+            connection.logger.debug("Body was never requested, closing the connection instead of draining.");
+            return false;
+        }
+
+        long drainLimit = this.maxDrainBytes < 0 ? Long.MAX_VALUE : this.maxDrainBytes;
+        long drained = 0;
+
+        InputStream bodyStream = session.body().stream();
+
+        if (bodyStream instanceof _FixedLengthInputStream) {
+            // Fixed-length bodies tell us how much is left, no need to read anything
+            // just to find out it's too large.
+            long unread = ((_FixedLengthInputStream) bodyStream).remaining();
+            if (unread > drainLimit) {
+                connection.logger.debug("Request body has %d unread bytes, over the max drain size of %d bytes, closing the connection instead.", unread, drainLimit);
+                return false;
+            }
+        }
+
+        byte[] scratch = new byte[DRAIN_BUFFER_SIZE];
+        int read;
+        while ((read = bodyStream.read(scratch, 0, scratch.length)) != -1) {
+            drained += read;
+
+            if (drained > drainLimit) {
+                connection.logger.debug("Request body exceeded the max drain size of %d bytes, closing the connection instead.", drainLimit);
+                return false;
+            }
+        }
+
+        connection.logger.trace("Drained %d bytes of unread request body.", drained);
+        return true;
+    }
+
+    /**
+     * Plaintext bodies are written an MTU at a time. Over TLS every chunk is at
+     * least a full record, otherwise records could never grow past the MTU.
+     */
+    private static int transferChunkSize(RHSConnection connection) {
+        if (connection.tlsVersion == null) {
+            return connection.guessedMtu;
+        }
+        return Math.max(connection.guessedMtu, DynamicRecordOutputStream.MAX_RECORD_SIZE);
+    }
+
     private static enum ResponseMode {
         CLOSE_ON_COMPLETE,
         FIXED_LENGTH,
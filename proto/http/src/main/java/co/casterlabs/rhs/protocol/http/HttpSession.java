@@ -17,6 +17,7 @@ import co.casterlabs.rhs.protocol.uri.Query;
 import co.casterlabs.rhs.protocol.uri.SimpleUri;
 import co.casterlabs.rhs.util.CaseInsensitiveMultiMap;
 import lombok.AccessLevel;
+import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import xyz.e3ndr.fastloggingframework.logging.FastLogger;
 
@@ -112,6 +113,29 @@ public class HttpSession {
             return Query.from(this.string());
         }
 
+        /**
+         * @see #multipart(MultipartReader.Limits)
+         */
+        public MultipartReader multipart() throws IOException {
+            return this.multipart(MultipartReader.Limits.DEFAULT);
+        }
+
+        /**
+         * Streams a multipart body (e.g multipart/form-data) part by part, without
+         * holding the whole body in memory.
+         *
+         * @implNote Reading parts will consume the request body, preventing you from
+         *           using getRequestBodyBytes() and similar methods.
+         */
+        public MultipartReader multipart(@NonNull MultipartReader.Limits limits) throws IOException {
+            HeaderValue contentType = HttpSession.this.headers().getSingle("Content-Type");
+            if (contentType == null) {
+                throw new IllegalStateException("Unsupported form body type: " + this.mime());
+            }
+
+            return MultipartReader.from(contentType, this.stream(), limits);
+        }
+
     }
 
     // Server info
@@ -0,0 +1,561 @@
+package co.casterlabs.rhs.protocol.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.commons.io.streams.StreamUtil;
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.util.CaseInsensitiveMultiMap;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.With;
+import lombok.experimental.Accessors;
+
+/**
+ * Lazily reads the parts of a multipart body (e.g multipart/form-data) straight
+ * off of the request stream. Only a small window of the body is ever held in
+ * memory, regardless of how large the parts are.
+ *
+ * <pre>
+ * try (MultipartReader reader = session.body().multipart()) {
+ *     MultipartReader.Part part;
+ *     while ((part = reader.next()) != null) {
+ *         if (part.filename() == null) {
+ *             String value = part.string();
+ *         } else {
+ *             Files.copy(part.stream(), somePath);
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * @implNote Calling {@link #next()} skips whatever is left of the previous
+ *           part, so parts must be consumed in order.
+ */
+public class MultipartReader implements Closeable {
+    private static final int MIN_BUFFER_SIZE = 16 /*kb*/ * 1024;
+    private static final int MAX_BOUNDARY_LENGTH = 70; // RFC 2046
+
+    private final InputStream in;
+    private final Limits limits;
+
+    // "\r\n--boundary", we prime the buffer with a \r\n so that the very first
+    // boundary (which has no leading newline) is found like any other.
+    private final byte[] delimiter;
+    private final int[] skipTable = new int[256];
+
+    private final byte[] buffer;
+    private int bufferPos = 0;
+    private int bufferLimit = 0;
+
+    private int scanFrom = 0; // Everything in [bufferPos, scanFrom) is known to not start a delimiter.
+    private int matchAt = -1;
+
+    private boolean isFinished = false;
+    private boolean hasReadPreamble = false;
+    private int partCount = 0;
+    private @Nullable PartInputStream currentStream;
+
+    private MultipartReader(InputStream in, String boundary, Limits limits) {
+        this.in = in;
+        this.limits = limits;
+
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(MIN_BUFFER_SIZE, this.delimiter.length * 4)];
+
+        // Boyer-Moore-Horspool bad character table.
+        int last = this.delimiter.length - 1;
+        for (int i = 0; i < this.skipTable.length; i++) {
+            this.skipTable[i] = this.delimiter.length;
+        }
+        for (int i = 0; i < last; i++) {
+            this.skipTable[this.delimiter[i] & 0xff] = last - i;
+        }
+
+        this.buffer[this.bufferLimit++] = '\r';
+        this.buffer[this.bufferLimit++] = '\n';
+    }
+
+    /**
+     * @param  contentType           the Content-Type of the body, used to grab
+     *                               the boundary.
+     *
+     * @throws IllegalStateException if the Content-Type is not multipart or is
+     *                               missing a valid boundary.
+     */
+    public static MultipartReader from(@NonNull HeaderValue contentType, @NonNull InputStream in, @NonNull Limits limits) {
+        String mime = contentType.withoutDirectives().trim();
+        if (!mime.regionMatches(true, 0, "multipart/", 0, "multipart/".length())) {
+            throw new IllegalStateException("Unsupported form body type: " + mime);
+        }
+
+        int directivesIndex = contentType.raw().indexOf(';');
+        String boundary = directivesIndex == -1 ? //
+            null : parseParameters(contentType.raw().substring(directivesIndex + 1)).get("boundary");
+        if (boundary == null || boundary.isEmpty() || boundary.length() > MAX_BOUNDARY_LENGTH) {
+            throw new IllegalStateException("Multipart body has a missing or invalid boundary.");
+        }
+
+        return new MultipartReader(in, boundary, limits);
+    }
+
+    /**
+     * @return the next part, or null if there are no more parts.
+     */
+    public @Nullable Part next() throws IOException {
+        if (this.isFinished) return null;
+
+        if (!this.hasReadPreamble) {
+            // The preamble is treated as a headerless part and thrown away.
+            this.hasReadPreamble = true;
+            this.currentStream = new PartInputStream();
+        }
+
+        if (this.currentStream != null) {
+            this.currentStream.skipRemaining();
+            this.currentStream = null;
+        }
+
+        // We're right after a delimiter, a "--" means that was the last one.
+        int b1 = this.readRawByte();
+        int b2 = this.readRawByte();
+        if (b1 == '-' && b2 == '-') {
+            this.isFinished = true;
+            return null;
+        }
+
+        // Otherwise, there's optional whitespace and then a newline.
+        while (b1 != '\r' || b2 != '\n') {
+            if (b1 != ' ' && b1 != '\t') {
+                throw new IOException("Malformed multipart delimiter.");
+            }
+            b1 = b2;
+            b2 = this.readRawByte();
+        }
+
+        if (++this.partCount > this.limits.maxParts) {
+            throw new IOException("Multipart body exceeded the maximum of " + this.limits.maxParts + " parts.");
+        }
+
+        CaseInsensitiveMultiMap<HeaderValue> headers = this.readPartHeaders();
+        this.currentStream = new PartInputStream();
+        return new Part(headers, this.currentStream);
+    }
+
+    /**
+     * Stops reading. Any unread parts are left on the request stream, which the
+     * server will deal with once you're done with the request.
+     */
+    @Override
+    public void close() {
+        this.isFinished = true;
+        this.currentStream = null;
+    }
+
+    /* ---------------- */
+    /* Parts            */
+    /* ---------------- */
+
+    public static class Part {
+        private final CaseInsensitiveMultiMap<HeaderValue> headers;
+        private final PartInputStream stream;
+
+        private final Map<String, String> dispositionParameters;
+
+        private Part(CaseInsensitiveMultiMap<HeaderValue> headers, PartInputStream stream) {
+            this.headers = headers;
+            this.stream = stream;
+
+            HeaderValue disposition = headers.getSingle("Content-Disposition");
+            int directivesIndex = disposition == null ? -1 : disposition.raw().indexOf(';');
+            if (directivesIndex == -1) {
+                this.dispositionParameters = Collections.emptyMap();
+            } else {
+                this.dispositionParameters = parseParameters(disposition.raw().substring(directivesIndex + 1));
+            }
+        }
+
+        public CaseInsensitiveMultiMap<HeaderValue> headers() {
+            return this.headers;
+        }
+
+        /**
+         * @return the form field name, from the Content-Disposition header.
+         */
+        public @Nullable String name() {
+            return this.dispositionParameters.get("name");
+        }
+
+        /**
+         * @return the file name, or null if this part isn't a file.
+         */
+        public @Nullable String filename() {
+            return this.dispositionParameters.get("filename");
+        }
+
+        /**
+         * @return the part's Content-Type, text/plain if it was not specified.
+         */
+        public String mime() {
+            HeaderValue contentType = this.headers.getSingle("Content-Type");
+            if (contentType == null) return "text/plain";
+            return contentType.raw();
+        }
+
+        public Charset charset() {
+            HeaderValue contentType = this.headers.getSingle("Content-Type");
+            if (contentType == null) return StandardCharsets.UTF_8;
+
+            return Charset.forName(
+                contentType.directives()
+                    .getSingleOrDefault("charset", "UTF-8")
+                    .replace('_', '-')
+            );
+        }
+
+        /**
+         * @implNote This stream is only valid until {@link MultipartReader#next()}
+         *           is called again.
+         */
+        public InputStream stream() {
+            return this.stream;
+        }
+
+        /**
+         * Reads the rest of this part into memory, this is subject to
+         * {@link Limits#maxPartBytes()}.
+         */
+        public byte[] bytes() throws IOException {
+            return StreamUtil.toBytes(this.stream);
+        }
+
+        public String string() throws IOException {
+            return new String(this.bytes(), this.charset());
+        }
+
+        @Override
+        public String toString() {
+            return "MultipartReader.Part(headers=" + this.headers + ")";
+        }
+
+    }
+
+    private class PartInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        private boolean isEndOfStream = false;
+        private long totalRead = 0;
+
+        PartInputStream() {
+            MultipartReader.this.matchAt = -1;
+            MultipartReader.this.scanFrom = MultipartReader.this.bufferPos;
+        }
+
+        void skipRemaining() throws IOException {
+            while (this.skip(Long.MAX_VALUE) > 0) {
+                // Keep going.
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = this.read(this.single, 0, 1);
+            return read == -1 ? -1 : this.single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            return this.consume(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) return 0;
+            int skipped = this.consume(null, 0, (int) Math.min(n, Integer.MAX_VALUE));
+            return skipped == -1 ? 0 : skipped;
+        }
+
+        @Override
+        public int available() {
+            if (this.isEndOfStream || MultipartReader.this.currentStream != this) return 0;
+
+            int safeEnd = MultipartReader.this.matchAt == -1 ? MultipartReader.this.scanFrom : MultipartReader.this.matchAt;
+            return Math.max(0, safeEnd - MultipartReader.this.bufferPos);
+        }
+
+        /**
+         * @param b null to skip.
+         */
+        private int consume(@Nullable byte[] b, int off, int len) throws IOException {
+            if (this.isEndOfStream || MultipartReader.this.currentStream != this) return -1;
+
+            int consumed = MultipartReader.this.consumePartData(b, off, len);
+            if (consumed == -1) {
+                this.isEndOfStream = true;
+                return -1;
+            }
+
+            this.totalRead += consumed;
+            if (this.totalRead > MultipartReader.this.limits.maxPartBytes) {
+                throw new IOException("Multipart part exceeded the maximum length of " + MultipartReader.this.limits.maxPartBytes + " bytes.");
+            }
+            return consumed;
+        }
+
+    }
+
+    /* ---------------- */
+    /* Scanning         */
+    /* ---------------- */
+
+    /**
+     * @return -1 once the delimiter has been reached (and consumed).
+     */
+    private int consumePartData(@Nullable byte[] b, int off, int len) throws IOException {
+        while (true) {
+            if (this.matchAt == -1) {
+                this.matchAt = this.indexOfDelimiter(Math.max(this.bufferPos, this.scanFrom), this.bufferLimit);
+
+                if (this.matchAt == -1) {
+                    // The tail of the buffer might still be the start of a delimiter.
+                    this.scanFrom = Math.max(this.bufferPos, this.bufferLimit - this.delimiter.length + 1);
+                }
+            }
+
+            if (this.matchAt == this.bufferPos) {
+                this.bufferPos += this.delimiter.length;
+                this.scanFrom = this.bufferPos;
+                this.matchAt = -1;
+                return -1;
+            }
+
+            int safeEnd = this.matchAt == -1 ? this.scanFrom : this.matchAt;
+            int available = safeEnd - this.bufferPos;
+            if (available > 0) {
+                int amount = Math.min(len, available);
+                if (b != null) {
+                    System.arraycopy(this.buffer, this.bufferPos, b, off, amount);
+                }
+                this.bufferPos += amount;
+                return amount;
+            }
+
+            if (!this.fill()) {
+                throw new IOException("Reached end of stream before multipart body was fully read.");
+            }
+        }
+    }
+
+    private int indexOfDelimiter(int from, int to) {
+        int last = this.delimiter.length - 1;
+
+        int idx = from;
+        while (idx + last < to) {
+            int j = last;
+            while (this.buffer[idx + j] == this.delimiter[j]) {
+                if (j == 0) return idx;
+                j--;
+            }
+            idx += this.skipTable[this.buffer[idx + last] & 0xff];
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return false if the end of stream was reached.
+     */
+    private boolean fill() throws IOException {
+        if (this.bufferPos > 0) {
+            int remaining = this.bufferLimit - this.bufferPos;
+            System.arraycopy(this.buffer, this.bufferPos, this.buffer, 0, remaining);
+
+            if (this.matchAt != -1) this.matchAt -= this.bufferPos;
+            this.scanFrom = Math.max(0, this.scanFrom - this.bufferPos);
+            this.bufferLimit = remaining;
+            this.bufferPos = 0;
+        }
+
+        int read = this.in.read(this.buffer, this.bufferLimit, this.buffer.length - this.bufferLimit);
+        if (read == -1) return false;
+
+        this.bufferLimit += read;
+        return true;
+    }
+
+    private int readRawByte() throws IOException {
+        if (this.bufferPos == this.bufferLimit && !this.fill()) {
+            throw new IOException("Reached end of stream before multipart body was fully read.");
+        }
+        return this.buffer[this.bufferPos++] & 0xff;
+    }
+
+    private CaseInsensitiveMultiMap<HeaderValue> readPartHeaders() throws IOException {
+        CaseInsensitiveMultiMap.Builder<HeaderValue> headers = new CaseInsensitiveMultiMap.Builder<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int totalLength = 0;
+
+        String currentKey = null;
+        String currentValue = null;
+
+        while (true) {
+            line.reset();
+            while (true) {
+                int read = this.readRawByte();
+                if (++totalLength > this.limits.maxHeaderBytes) {
+                    throw new IOException("Multipart part headers exceeded the maximum length of " + this.limits.maxHeaderBytes + " bytes.");
+                }
+
+                if (read == '\n') break;
+                if (read != '\r') line.write(read);
+            }
+
+            // Browsers send non-ascii file names as raw UTF-8.
+            String str = line.toString(StandardCharsets.UTF_8);
+
+            if (str.isEmpty()) {
+                // End of headers
+                if (currentKey != null) {
+                    headers.put(currentKey.trim(), new HeaderValue(currentValue.trim()));
+                }
+                return headers.build();
+            }
+
+            if (str.charAt(0) == ' ' || str.charAt(0) == '\t') {
+                if (currentKey == null) {
+                    throw new IOException("Multipart header continuation without previous header.");
+                }
+                currentValue += str;
+                continue;
+            }
+
+            if (currentKey != null) {
+                headers.put(currentKey.trim(), new HeaderValue(currentValue.trim()));
+            }
+
+            int colonIndex = str.indexOf(':');
+            if (colonIndex < 1) {
+                throw new IOException("Multipart header is missing ':' separator.");
+            }
+
+            currentKey = str.substring(0, colonIndex);
+            currentValue = str.substring(colonIndex + 1);
+        }
+    }
+
+    /* ---------------- */
+    /* Helpers          */
+    /* ---------------- */
+
+    /**
+     * Parses header parameters such as <code>name="field"; filename="a;b.txt"</code>,
+     * honoring quoted strings and RFC 5987 (<code>filename*=UTF-8''...</code>)
+     * values.
+     */
+    static Map<String, String> parseParameters(String raw) {
+        Map<String, String> parameters = new HashMap<>();
+
+        int idx = 0;
+        int length = raw.length();
+        while (idx < length) {
+            // Key
+            int keyStart = idx;
+            while (idx < length && raw.charAt(idx) != '=' && raw.charAt(idx) != ';') idx++;
+            String key = raw.substring(keyStart, idx).trim().toLowerCase();
+
+            // Value
+            StringBuilder value = new StringBuilder();
+            if (idx < length && raw.charAt(idx) == '=') {
+                idx++; // Consume the '='
+                while (idx < length && raw.charAt(idx) == ' ') idx++;
+
+                if (idx < length && raw.charAt(idx) == '"') {
+                    idx++; // Consume the opening '"'
+                    while (idx < length && raw.charAt(idx) != '"') {
+                        char c = raw.charAt(idx++);
+                        if (c == '\\' && idx < length) {
+                            c = raw.charAt(idx++);
+                        }
+                        value.append(c);
+                    }
+                    idx++; // Consume the closing '"'
+                    while (idx < length && raw.charAt(idx) != ';') idx++;
+                } else {
+                    int valueStart = idx;
+                    while (idx < length && raw.charAt(idx) != ';') idx++;
+                    value.append(raw, valueStart, idx);
+                }
+            }
+            idx++; // Consume the ';'
+
+            if (key.isEmpty()) continue;
+
+            if (key.endsWith("*")) {
+                // charset'language'percent-encoded
+                String extended = value.toString().trim();
+                int firstQuote = extended.indexOf('\'');
+                int secondQuote = firstQuote == -1 ? -1 : extended.indexOf('\'', firstQuote + 1);
+                if (secondQuote == -1) continue;
+
+                try {
+                    String charset = extended.substring(0, firstQuote);
+                    String encoded = extended.substring(secondQuote + 1).replace("+", "%2B");
+                    parameters.put(key.substring(0, key.length() - 1), URLDecoder.decode(encoded, charset.isEmpty() ? "UTF-8" : charset));
+                } catch (UnsupportedEncodingException | IllegalArgumentException ignored) {}
+            } else {
+                parameters.putIfAbsent(key, value.toString().trim());
+            }
+        }
+
+        return parameters;
+    }
+
+    /* ---------------- */
+    /* Limits           */
+    /* ---------------- */
+
+    @Value
+    @With
+    @AllArgsConstructor
+    @Accessors(fluent = true)
+    public static class Limits {
+        /**
+         * Defaults to 16kb of headers, 64mb per part and 1000 parts.
+         */
+        public static final Limits DEFAULT = new Limits(
+            16 /*kb*/ * 1024,
+            64 /*mb*/ * 1024 * 1024,
+            1000
+        );
+
+        /**
+         * The max length of a single part's header block.
+         */
+        private int maxHeaderBytes;
+
+        /**
+         * The max length of a single part's content.
+         */
+        private long maxPartBytes;
+
+        /**
+         * The max amount of parts in the body.
+         */
+        private int maxParts;
+
+    }
+
+}
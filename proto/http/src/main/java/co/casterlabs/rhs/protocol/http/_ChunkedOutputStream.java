@@ -29,6 +29,13 @@ class _ChunkedOutputStream extends OutputStream {
         });
     }
 
+    @Override
+    public void flush() throws IOException {
+        this.lock.execute(() -> {
+            this.output.flush();
+        });
+    }
+
     @Override
     public void write(int b) throws IOException {
         this.lock.execute(() -> {
@@ -0,0 +1,65 @@
+package co.casterlabs.rhs.protocol.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A Content-Length body. Keeps track of how much is left so that we know how
+ * much there is to drain once the handler is done with it.
+ */
+class _FixedLengthInputStream extends InputStream {
+    private final byte[] single = new byte[1];
+    private final InputStream in;
+
+    private long remaining;
+
+    _FixedLengthInputStream(InputStream in, long length) {
+        this.in = in;
+        this.remaining = length;
+    }
+
+    /**
+     * @return how many bytes of the body haven't been read yet.
+     */
+    public long remaining() {
+        return this.remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = this.read(this.single, 0, 1);
+        return read == -1 ? -1 : this.single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.remaining <= 0) return -1;
+        if (len == 0) return 0;
+
+        int read = this.in.read(b, off, (int) Math.min(len, this.remaining));
+        if (read == -1) {
+            this.remaining = 0; // The client hung up on us.
+            return -1;
+        }
+
+        this.remaining -= read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) return 0;
+
+        long skipped = this.in.skip(Math.min(n, this.remaining));
+        this.remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(this.in.available(), this.remaining);
+    }
+
+    // Don't close the underlying stream, it's the connection.
+
+}
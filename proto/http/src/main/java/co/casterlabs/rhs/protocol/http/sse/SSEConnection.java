@@ -0,0 +1,145 @@
+package co.casterlabs.rhs.protocol.http.sse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+/**
+ * An open event stream. Events are written and flushed as soon as they're sent,
+ * from whichever thread sends them.
+ */
+@Accessors(fluent = true)
+public class SSEConnection implements Closeable {
+    private static final byte[] HEARTBEAT = SSEEvent.comment("");
+
+    private final @Getter HttpSession session;
+    private final OutputStream out;
+
+    /**
+     * The id of the last event the client saw before reconnecting, if any.
+     */
+    private final @Getter @Nullable String lastEventId;
+
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean open = true;
+
+    // Guarded by this. The last hub event sent as part of a replay.
+    long replayedThrough = -1;
+    private long lastWrite = System.nanoTime();
+
+    SSEConnection(HttpSession session, OutputStream out) {
+        this.session = session;
+        this.out = out;
+
+        HeaderValue lastEventId = session.headers().getSingle("Last-Event-ID");
+        this.lastEventId = lastEventId == null ? null : lastEventId.raw();
+    }
+
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    public void send(@NonNull String data) throws IOException {
+        this.send(SSEEvent.of(data));
+    }
+
+    public void send(@Nullable String type, @NonNull String data) throws IOException {
+        this.send(SSEEvent.of(type, data));
+    }
+
+    public synchronized void send(@NonNull SSEEvent event) throws IOException {
+        if (event.sequence != -1 && event.sequence <= this.replayedThrough) {
+            // This was published while we were subscribing, and went out with the replay.
+            return;
+        }
+
+        this.write(event.encoded);
+    }
+
+    /**
+     * Sends a comment, which clients ignore.
+     */
+    public synchronized void comment(@NonNull String comment) throws IOException {
+        this.write(SSEEvent.comment(comment));
+    }
+
+    /**
+     * @param listener called once the connection is closed, either by you or
+     *                 because the client went away. If it's already closed then
+     *                 the listener is called immediately.
+     */
+    public void onClose(@NonNull Runnable listener) {
+        this.closeListeners.add(listener);
+        if (!this.open && this.closeListeners.remove(listener)) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Ends the event stream. Clients will reconnect unless you respond with
+     * something other than an event stream next time.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!this.open) return;
+            this.open = false;
+            this.notifyAll();
+        }
+
+        for (Runnable listener : this.closeListeners) {
+            if (this.closeListeners.remove(listener)) {
+                listener.run();
+            }
+        }
+    }
+
+    // Caller must hold this.
+    private void write(byte[] bytes) throws IOException {
+        if (!this.open) throw new IOException("Event stream is closed.");
+
+        try {
+            this.out.write(bytes);
+            this.out.flush();
+            this.lastWrite = System.nanoTime();
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Blocks the response thread until the stream is closed, sending a heartbeat
+     * whenever nothing else has been sent for a while. The heartbeats keep
+     * proxies from timing us out and let us notice when the client disappears.
+     */
+    synchronized void await(long heartbeatMillis) throws InterruptedException {
+        long heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+
+        while (this.open) {
+            long untilHeartbeat = heartbeatNanos - (System.nanoTime() - this.lastWrite);
+            if (untilHeartbeat > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, untilHeartbeat);
+                continue;
+            }
+
+            try {
+                this.write(HEARTBEAT);
+            } catch (IOException e) {
+                return; // Closed.
+            }
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package co.casterlabs.rhs.protocol.http.sse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+/**
+ * A single Server-Sent Event, serialized once when it's created so that it can
+ * be written to any number of connections without re-encoding.
+ */
+@Getter
+@Accessors(fluent = true)
+public class SSEEvent {
+    private final @Nullable String id;
+    private final @Nullable String type;
+    private final String data;
+
+    /**
+     * Used by {@link SSEHub} to order events, -1 otherwise.
+     */
+    final long sequence;
+
+    final byte[] encoded;
+
+    SSEEvent(@Nullable String id, @Nullable String type, @NonNull String data, long retryMillis, long sequence) {
+        this.id = id;
+        this.type = type;
+        this.data = data;
+        this.sequence = sequence;
+        this.encoded = encode(id, type, data, retryMillis);
+    }
+
+    public static SSEEvent of(@NonNull String data) {
+        return new SSEEvent(null, null, data, -1, -1);
+    }
+
+    public static SSEEvent of(@Nullable String type, @NonNull String data) {
+        return new SSEEvent(null, type, data, -1, -1);
+    }
+
+    public static SSEEvent of(@Nullable String id, @Nullable String type, @NonNull String data) {
+        return new SSEEvent(id, type, data, -1, -1);
+    }
+
+    /**
+     * Tells the client how long to wait before reconnecting, along with the
+     * event.
+     */
+    public static SSEEvent of(@Nullable String id, @Nullable String type, @NonNull String data, long retryMillis) {
+        return new SSEEvent(id, type, data, retryMillis, -1);
+    }
+
+    static byte[] comment(@NonNull String comment) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(comment.length() + 4);
+        for (String line : comment.split("\r\n|\r|\n", -1)) {
+            field(out, "", line);
+        }
+        out.write('\n');
+        return out.toByteArray();
+    }
+
+    private static byte[] encode(@Nullable String id, @Nullable String type, String data, long retryMillis) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length() + 32);
+
+        if (id != null) {
+            if (id.indexOf('\n') != -1 || id.indexOf('\r') != -1 || id.indexOf('\0') != -1) {
+                throw new IllegalArgumentException("Event ids may not contain newlines or NULs.");
+            }
+            field(out, "id", id);
+        }
+
+        if (type != null) {
+            if (type.indexOf('\n') != -1 || type.indexOf('\r') != -1) {
+                throw new IllegalArgumentException("Event types may not contain newlines.");
+            }
+            field(out, "event", type);
+        }
+
+        if (retryMillis >= 0) {
+            field(out, "retry", String.valueOf(retryMillis));
+        }
+
+        // Each line gets its own data field, the client joins them back together
+        // with \n.
+        for (String line : data.split("\r\n|\r|\n", -1)) {
+            field(out, "data", line);
+        }
+
+        out.write('\n');
+        return out.toByteArray();
+    }
+
+    private static void field(ByteArrayOutputStream out, String name, String value) {
+        out.writeBytes(name.getBytes(StandardCharsets.UTF_8));
+        out.write(':');
+        out.write(' ');
+        out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+}
@@ -0,0 +1,161 @@
+package co.casterlabs.rhs.protocol.http.sse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+
+/**
+ * Fans events out to every subscribed {@link SSEConnection}. Each event is
+ * serialized once, no matter how many subscribers there are.
+ *
+ * <p>
+ * The most recent events are kept in a ring buffer. Clients that reconnect with
+ * a <code>Last-Event-ID</code> get everything they missed, as long as it's
+ * still in the buffer.
+ *
+ * <pre>
+ * SSEHub hub = new SSEHub();
+ * ...
+ * return SSEResponse.newResponse(session, hub::subscribe);
+ * ...
+ * hub.publish("message", "Hello!");
+ * </pre>
+ */
+public class SSEHub {
+    public static final int DEFAULT_REPLAY_SIZE = 256;
+
+    private final Set<SSEConnection> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Held for the whole fan-out, so that events reach every subscriber in order.
+    private final Object publishLock = new Object();
+
+    // Guarded by this.
+    private final SSEEvent[] replay;
+    private int replayHead = 0;
+    private int replaySize = 0;
+    private long nextSequence = 1;
+
+    public SSEHub() {
+        this(DEFAULT_REPLAY_SIZE);
+    }
+
+    /**
+     * @param replaySize how many events to keep around for clients that
+     *                   reconnect, 0 to disable replay.
+     */
+    public SSEHub(int replaySize) {
+        this.replay = new SSEEvent[Math.max(0, replaySize)];
+    }
+
+    /**
+     * Adds the connection to the hub, replaying anything the client missed. The
+     * connection is removed once it closes.
+     */
+    public void subscribe(@NonNull SSEConnection connection) throws IOException {
+        long lastSeen = parseSequence(connection.lastEventId());
+
+        // Holding the connection's lock stops publishers from sending to it until
+        // the replay is done, which keeps everything in order.
+        synchronized (connection) {
+            List<SSEEvent> missed;
+            synchronized (this) {
+                this.subscribers.add(connection);
+                missed = lastSeen == -1 ? Collections.emptyList() : this.eventsAfter(lastSeen);
+            }
+            connection.onClose(() -> this.subscribers.remove(connection));
+
+            for (SSEEvent event : missed) {
+                connection.send(event);
+            }
+
+            // Live events that were published while we were subscribing may have
+            // already gone out with the replay.
+            if (!missed.isEmpty()) {
+                connection.replayedThrough = missed.get(missed.size() - 1).sequence;
+            }
+        }
+    }
+
+    public SSEEvent publish(@NonNull String data) {
+        return this.publish(null, data);
+    }
+
+    /**
+     * Sends an event to all subscribers. Its id is assigned by the hub.
+     *
+     * @implNote Events are written on the calling thread, one publish at a time
+     *           so that subscribers see them in order. A subscriber whose socket
+     *           is backed up will slow down every publisher.
+     */
+    public SSEEvent publish(@Nullable String type, @NonNull String data) {
+        synchronized (this.publishLock) {
+            SSEEvent event;
+            SSEConnection[] targets;
+            synchronized (this) {
+                long sequence = this.nextSequence++;
+                event = new SSEEvent(String.valueOf(sequence), type, data, -1, sequence);
+
+                if (this.replay.length > 0) {
+                    this.replay[this.replayHead] = event;
+                    this.replayHead = (this.replayHead + 1) % this.replay.length;
+                    this.replaySize = Math.min(this.replaySize + 1, this.replay.length);
+                }
+
+                targets = this.subscribers.toArray(new SSEConnection[0]);
+            }
+
+            for (SSEConnection connection : targets) {
+                try {
+                    connection.send(event);
+                } catch (IOException ignored) {
+                    // The connection closed itself, which also unsubscribed it.
+                }
+            }
+
+            return event;
+        }
+    }
+
+    public int subscriberCount() {
+        return this.subscribers.size();
+    }
+
+    /**
+     * Closes every subscribed connection.
+     */
+    public void close() {
+        for (SSEConnection connection : this.subscribers.toArray(new SSEConnection[0])) {
+            connection.close();
+        }
+    }
+
+    // Caller must hold this.
+    private List<SSEEvent> eventsAfter(long sequence) {
+        List<SSEEvent> events = new ArrayList<>();
+        int oldest = this.replayHead - this.replaySize + this.replay.length;
+        for (int i = 0; i < this.replaySize; i++) {
+            SSEEvent event = this.replay[(oldest + i) % this.replay.length];
+            if (event.sequence > sequence) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private static long parseSequence(@Nullable String eventId) {
+        if (eventId == null) return -1;
+        try {
+            return Long.parseLong(eventId.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package co.casterlabs.rhs.protocol.http.sse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpResponse.ResponseContent;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+/**
+ * A <code>text/event-stream</code> response. Events are written straight to the
+ * (chunked) response, so there's no extra thread or pipe per client.
+ *
+ * <pre>
+ * return SSEResponse.newResponse(session, (connection) -> {
+ *     connection.send("Hello!");
+ *     connection.onClose(() -> ...);
+ * });
+ * </pre>
+ */
+@AllArgsConstructor
+public class SSEResponse implements ResponseContent {
+    public static final long DEFAULT_HEARTBEAT_MILLIS = 15_000;
+
+    private final HttpSession session;
+    private final long heartbeatMillis;
+    private final Listener listener;
+
+    public static HttpResponse newResponse(@NonNull HttpSession session, @NonNull Listener listener) {
+        return newResponse(session, DEFAULT_HEARTBEAT_MILLIS, listener);
+    }
+
+    public static HttpResponse newResponse(@NonNull HttpSession session, long heartbeatMillis, @NonNull Listener listener) {
+        if (heartbeatMillis <= 0) {
+            throw new IllegalArgumentException("Heartbeat interval must be positive.");
+        }
+
+        return new HttpResponse(new SSEResponse(session, heartbeatMillis, listener), StandardHttpStatus.OK)
+            .mime("text/event-stream; charset=utf-8")
+            .header("Cache-Control", "no-cache")
+            .header("X-Accel-Buffering", "no"); // Stops nginx from buffering the stream.
+    }
+
+    @Override
+    public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+        SSEConnection connection = new SSEConnection(this.session, out);
+        try {
+            out.flush(); // Get the headers out the door.
+            this.listener.onOpen(connection);
+            connection.await(this.heartbeatMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {}
+
+    @FunctionalInterface
+    public static interface Listener {
+
+        /**
+         * Called on the response thread once the stream is open. You may keep the
+         * connection and send events to it from any thread until it is closed.
+         */
+        public void onOpen(SSEConnection connection) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import co.casterlabs.rhs.HttpServer;
+import co.casterlabs.rhs.HttpServerBuilder;
+import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
+import co.casterlabs.rhs.protocol.http.HttpProtocol;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.sse.SSEHub;
+import co.casterlabs.rhs.protocol.http.sse.SSEResponse;
+import xyz.e3ndr.fastloggingframework.FastLoggingFramework;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+public class SSETest {
+
+    public static void main(String[] args) throws IOException, UnrecoverableKeyException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        FastLoggingFramework.setDefaultLevel(LogLevel.ALL);
+
+        SSEHub hub = new SSEHub();
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
+            () -> hub.publish("time", Instant.now().toString()),
+            1, 1, TimeUnit.SECONDS
+        );
+
+        // Several threads publishing at once, the ids on /burst should still come out
+        // strictly in order with none missing.
+        SSEHub burstHub = new SSEHub();
+        ExecutorService publishers = Executors.newFixedThreadPool(4);
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
+            () -> {
+                for (int t = 0; t < 4; t++) {
+                    final int thread = t;
+                    publishers.execute(() -> {
+                        for (int i = 0; i < 25; i++) {
+                            burstHub.publish("burst", "thread " + thread + " #" + i);
+                        }
+                    });
+                }
+            },
+            1, 5, TimeUnit.SECONDS
+        );
+
+        HttpServer server = new HttpServerBuilder()
+            .withPort(8080)
+            .with(
+                new HttpProtocol(), (session) -> {
+                    switch (session.uri().path) {
+                        case "/events":
+                            return SSEResponse.newResponse(session, 5000, hub::subscribe);
+
+                        case "/burst":
+                            return SSEResponse.newResponse(session, 5000, burstHub::subscribe);
+
+                        case "/hello":
+                            return SSEResponse.newResponse(session, (connection) -> {
+                                connection.send("Hello " + session.remoteNetworkAddress() + "!");
+                                connection.close();
+                            });
+
+                        default:
+                            return HttpResponse.newFixedLengthResponse(StandardHttpStatus.NOT_FOUND);
+                    }
+                }
+            )
+            .build();
+
+        server.start(); // Try `curl -N http://127.0.0.1:8080/events` or `curl -N -H "Last-Event-ID: 3" http://127.0.0.1:8080/events` or `curl -N http://127.0.0.1:8080/burst`
+    }
+
+}
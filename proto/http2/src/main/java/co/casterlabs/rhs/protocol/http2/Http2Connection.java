@@ -0,0 +1,43 @@
+package co.casterlabs.rhs.protocol.http2;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.rhs.protocol.RHSConnection;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+
+/**
+ * A connection that is about to switch to HTTP/2. Your handler is invoked once
+ * per stream with a regular {@link HttpSession}, so you generally won't need to
+ * touch this.
+ */
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class Http2Connection {
+    final RHSConnection connection;
+
+    /**
+     * The decoded HTTP2-Settings header, null if the client had prior knowledge.
+     */
+    final @Nullable byte[] upgradeSettings;
+
+    /**
+     * The body of the request that asked to upgrade, if any.
+     */
+    final @Nullable byte[] upgradeBody;
+
+    /**
+     * Non-null if the upgrade wasn't viable and we should just answer over
+     * HTTP/1.1.
+     */
+    final @Nullable HttpSession fallback;
+
+    public boolean isPriorKnowledge() {
+        return this.upgradeSettings == null && this.fallback == null;
+    }
+
+    public boolean isUpgraded() {
+        return this.fallback == null;
+    }
+
+}
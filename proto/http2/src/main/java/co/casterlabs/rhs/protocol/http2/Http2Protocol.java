@@ -0,0 +1,181 @@
+package co.casterlabs.rhs.protocol.http2;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.rhs.HttpStatus;
+import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
+import co.casterlabs.rhs.HttpVersion;
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.protocol.RHSConnection;
+import co.casterlabs.rhs.protocol.RHSProtocol;
+import co.casterlabs.rhs.protocol.exceptions.DropConnectionException;
+import co.casterlabs.rhs.protocol.exceptions.HttpException;
+import co.casterlabs.rhs.protocol.http.HttpProtocol;
+import co.casterlabs.rhs.protocol.http.HttpProtocol.HttpProtoHandler;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.With;
+import lombok.experimental.Accessors;
+
+/**
+ * HTTP/2, either negotiated via ALPN (h2) on TLS connections or in cleartext
+ * (h2c) via prior knowledge or <code>Upgrade: h2c</code>. Uses the same
+ * handler as {@link HttpProtocol}, so you can register the same handler for
+ * both.
+ * 
+ * @implNote Responses are not compressed over HTTP/2.
+ */
+@Getter
+@AllArgsConstructor
+@Accessors(fluent = true)
+public class Http2Protocol extends RHSProtocol<Http2Connection, HttpProtoHandler, HttpProtoHandler> {
+    private static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+    private static final int DEFAULT_INITIAL_WINDOW_SIZE = 256 /*kb*/ * 1024;
+    private static final int DEFAULT_MAX_HEADER_LIST_SIZE = 16 /*kb*/ * 1024;
+
+    /**
+     * Upgrades with a body larger than this are served over HTTP/1.1 instead,
+     * since we have to buffer the body before switching.
+     */
+    private static final int MAX_UPGRADE_BODY_SIZE = 64 /*kb*/ * 1024;
+
+    private static final HttpStatus BAD_SETTINGS = HttpStatus.adapt(400, "Invalid HTTP2-Settings");
+
+    /**
+     * Used for requests that asked to upgrade but couldn't be.
+     */
+    private static final HttpProtocol FALLBACK = new HttpProtocol();
+
+    /**
+     * The most streams a client may have open at once.
+     */
+    private @With int maxConcurrentStreams;
+
+    /**
+     * How much of a request body the client may send before we read it. This is
+     * also how much we buffer per stream.
+     */
+    private @With int initialWindowSize;
+
+    /**
+     * The largest (uncompressed) set of request headers we accept.
+     */
+    private @With int maxHeaderListSize;
+
+    public Http2Protocol() {
+        this(DEFAULT_MAX_CONCURRENT_STREAMS, DEFAULT_INITIAL_WINDOW_SIZE, DEFAULT_MAX_HEADER_LIST_SIZE);
+    }
+
+    @Override
+    public String name() {
+        return "h2c";
+    }
+
+    @Override
+    public String alpnName() {
+        return "h2";
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public @Nullable Http2Connection accept(RHSConnection connection) throws IOException, HttpException {
+        if (connection.httpVersion == HttpVersion.HTTP_2_0) {
+            // Prior knowledge (or ALPN), we've only read `PRI * HTTP/2.0` so far.
+            if (!connection.method.equals("PRI") || !connection.uri.path.equals("*")) {
+                throw new HttpException(StandardHttpStatus.UNSUPPORTED_HTTP_VERSION);
+            }
+
+            return new Http2Connection(connection, null, null, null);
+        }
+
+        List<HeaderValue> settingsHeader = connection.headers.get("HTTP2-Settings");
+        if (settingsHeader == null || settingsHeader.size() != 1) {
+            connection.logger.debug("Missing HTTP2-Settings, not upgrading.");
+            return fallback(connection);
+        }
+
+        byte[] settings;
+        try {
+            settings = Base64.getUrlDecoder().decode(settingsHeader.get(0).raw().trim());
+        } catch (IllegalArgumentException e) {
+            throw new HttpException(BAD_SETTINGS);
+        }
+
+        byte[] body = null;
+        if (connection.headers.containsKey("Transfer-Encoding")) {
+            connection.logger.debug("Request has a chunked body, not upgrading.");
+            return fallback(connection);
+        }
+
+        HeaderValue contentLength = connection.headers.getSingle("Content-Length");
+        if (contentLength != null) {
+            long length = Long.parseLong(contentLength.raw());
+            if (length > MAX_UPGRADE_BODY_SIZE) {
+                connection.logger.debug("Request body is too large to buffer, not upgrading.");
+                return fallback(connection);
+            }
+
+            // The whole body has to be read before we can switch protocols.
+            connection.satisfyExpectations();
+            body = connection.input.readNBytes((int) length);
+            if (body.length != length) {
+                throw new DropConnectionException();
+            }
+        }
+
+        return new Http2Connection(connection, settings, body, null);
+    }
+
+    private static Http2Connection fallback(RHSConnection connection) throws IOException, HttpException {
+        return new Http2Connection(connection, null, null, FALLBACK.accept(connection));
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public boolean process(Http2Connection session, HttpProtoHandler handler, RHSConnection connection) throws IOException, HttpException, DropConnectionException, InterruptedException {
+        if (session.fallback != null) {
+            HttpResponse response = handler.handle(session.fallback);
+            if (response == null) throw new DropConnectionException();
+
+            return FALLBACK.process(session.fallback, response, connection);
+        }
+
+        _Http2Multiplexer mux = new _Http2Multiplexer(this, connection, handler);
+
+        if (session.upgradeSettings == null) {
+            mux.run(_Http2Frames.CLIENT_PREFACE_REMAINDER, null, null);
+            return false;
+        }
+
+        try {
+            mux.applyPeerSettings(session.upgradeSettings);
+        } catch (_Http2Exception e) {
+            throw new HttpException(BAD_SETTINGS);
+        }
+
+        connection.respond(
+            StandardHttpStatus.SWITCHING_PROTOCOLS,
+            Map.of(
+                "Connection", "Upgrade",
+                "Upgrade", "h2c"
+            )
+        );
+        connection.logger.trace("Upgraded to h2c, waiting for the connection preface.");
+
+        mux.run(_Http2Frames.CLIENT_PREFACE, connection, session.upgradeBody);
+        return false;
+    }
+
+    @Override
+    public HttpProtoHandler handle(Http2Connection session, HttpProtoHandler handler) {
+        // Streams are handled individually, see _Http2Multiplexer.
+        return handler;
+    }
+
+}
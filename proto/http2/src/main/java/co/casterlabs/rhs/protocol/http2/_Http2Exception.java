@@ -0,0 +1,33 @@
+package co.casterlabs.rhs.protocol.http2;
+
+import java.io.IOException;
+
+class _Http2Exception extends IOException {
+    private static final long serialVersionUID = -1497463313236213446L;
+
+    final int errorCode;
+
+    /**
+     * 0 if this is a connection error.
+     */
+    final int streamId;
+
+    private _Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    boolean isConnectionError() {
+        return this.streamId == 0;
+    }
+
+    static _Http2Exception connection(int errorCode, String message) {
+        return new _Http2Exception(errorCode, 0, message);
+    }
+
+    static _Http2Exception stream(int errorCode, int streamId, String message) {
+        return new _Http2Exception(errorCode, streamId, message);
+    }
+
+}
@@ -0,0 +1,107 @@
+package co.casterlabs.rhs.protocol.http2;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants from RFC 9113.
+ */
+class _Http2Frames {
+    static final byte[] CLIENT_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * What's left of the preface after the server has parsed it as a request
+     * line (PRI * HTTP/2.0) and an empty set of headers.
+     */
+    static final byte[] CLIENT_PREFACE_REMAINDER = "SM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    static final int FRAME_HEADER_LENGTH = 9;
+
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    static final int MAX_MAX_FRAME_SIZE = 16777215;
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+    static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+
+    /* ---------------- */
+    /* Frame Types      */
+    /* ---------------- */
+
+    static final int TYPE_DATA = 0x0;
+    static final int TYPE_HEADERS = 0x1;
+    static final int TYPE_PRIORITY = 0x2;
+    static final int TYPE_RST_STREAM = 0x3;
+    static final int TYPE_SETTINGS = 0x4;
+    static final int TYPE_PUSH_PROMISE = 0x5;
+    static final int TYPE_PING = 0x6;
+    static final int TYPE_GOAWAY = 0x7;
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+    static final int TYPE_CONTINUATION = 0x9;
+
+    /* ---------------- */
+    /* Flags            */
+    /* ---------------- */
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    /* ---------------- */
+    /* Settings         */
+    /* ---------------- */
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    /* ---------------- */
+    /* Error Codes      */
+    /* ---------------- */
+
+    static final int ERROR_NO_ERROR = 0x0;
+    static final int ERROR_PROTOCOL_ERROR = 0x1;
+    static final int ERROR_INTERNAL_ERROR = 0x2;
+    static final int ERROR_FLOW_CONTROL_ERROR = 0x3;
+    static final int ERROR_SETTINGS_TIMEOUT = 0x4;
+    static final int ERROR_STREAM_CLOSED = 0x5;
+    static final int ERROR_FRAME_SIZE_ERROR = 0x6;
+    static final int ERROR_REFUSED_STREAM = 0x7;
+    static final int ERROR_CANCEL = 0x8;
+    static final int ERROR_COMPRESSION_ERROR = 0x9;
+    static final int ERROR_CONNECT_ERROR = 0xa;
+    static final int ERROR_ENHANCE_YOUR_CALM = 0xb;
+    static final int ERROR_INADEQUATE_SECURITY = 0xc;
+    static final int ERROR_HTTP_1_1_REQUIRED = 0xd;
+
+    /* ---------------- */
+    /* Helpers          */
+    /* ---------------- */
+
+    static void writeHeader(byte[] dest, int length, int type, int flags, int streamId) {
+        dest[0] = (byte) (length >>> 16);
+        dest[1] = (byte) (length >>> 8);
+        dest[2] = (byte) length;
+        dest[3] = (byte) type;
+        dest[4] = (byte) flags;
+        writeInt(dest, 5, streamId & 0x7fffffff);
+    }
+
+    static void writeInt(byte[] dest, int off, int value) {
+        dest[off] = (byte) (value >>> 24);
+        dest[off + 1] = (byte) (value >>> 16);
+        dest[off + 2] = (byte) (value >>> 8);
+        dest[off + 3] = (byte) value;
+    }
+
+    static int readInt(byte[] src, int off) {
+        return ((src[off] & 0xff) << 24) |
+            ((src[off + 1] & 0xff) << 16) |
+            ((src[off + 2] & 0xff) << 8) |
+            (src[off + 3] & 0xff);
+    }
+
+}
@@ -0,0 +1,899 @@
+package co.casterlabs.rhs.protocol.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.commons.io.streams.OverzealousInputStream;
+import co.casterlabs.rhs.HttpStatus;
+import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
+import co.casterlabs.rhs.HttpVersion;
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.protocol.RHSConnection;
+import co.casterlabs.rhs.protocol.exceptions.DropConnectionException;
+import co.casterlabs.rhs.protocol.exceptions.HttpException;
+import co.casterlabs.rhs.protocol.hpack.HpackDecoder;
+import co.casterlabs.rhs.protocol.hpack.HpackEncoder;
+import co.casterlabs.rhs.protocol.hpack.HpackException;
+import co.casterlabs.rhs.protocol.http.HttpProtocol.HttpProtoHandler;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import co.casterlabs.rhs.protocol.uri.SimpleUri;
+import co.casterlabs.rhs.util.CaseInsensitiveMultiMap;
+import co.casterlabs.rhs.util.TaskExecutor.Task;
+
+/**
+ * Reads frames off of the connection and dispatches each stream to the task
+ * executor. Writes from any thread are serialized through {@link #writeLock}.
+ */
+@SuppressWarnings("deprecation")
+class _Http2Multiplexer {
+    /**
+     * We buffer at most one stream window per stream, so there's no need for
+     * the connection window to get in the way.
+     */
+    private static final int CONNECTION_WINDOW_SIZE = 16 /*mb*/ * 1024 * 1024;
+
+    private static final Set<String> CONNECTION_SPECIFIC_HEADERS = new HashSet<>(
+        Arrays.asList(
+            "connection",
+            "keep-alive",
+            "proxy-connection",
+            "transfer-encoding",
+            "upgrade",
+            "http2-settings"
+        )
+    );
+
+    private static final InputStream EMPTY_INPUT = InputStream.nullInputStream();
+    private static final OutputStream UNSUPPORTED_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("Direct writes are not supported over HTTP/2.");
+        }
+    };
+
+    private final RHSConnection connection;
+    private final HttpProtoHandler handler;
+
+    final int initialWindowSize;
+    private final int maxConcurrentStreams;
+    private final int maxHeaderListSize;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final Object writeLock = new Object();
+
+    private final Map<Integer, _Http2Stream> streams = new ConcurrentHashMap<>();
+    private final HpackDecoder decoder = new HpackDecoder(_Http2Frames.DEFAULT_HEADER_TABLE_SIZE);
+    private final HpackEncoder encoder = new HpackEncoder(_Http2Frames.DEFAULT_HEADER_TABLE_SIZE); // Guarded by writeLock.
+
+    /* Send side, guarded by this */
+    private long connectionSendWindow = _Http2Frames.DEFAULT_WINDOW_SIZE;
+    private int peerInitialWindowSize = _Http2Frames.DEFAULT_WINDOW_SIZE;
+
+    /* Read loop only */
+    private int connectionReceiveWindow = _Http2Frames.DEFAULT_WINDOW_SIZE;
+    private int lastStreamId = 0;
+    private boolean goingAway = false;
+
+    private int continuationStreamId = 0;
+    private boolean continuationEndStream;
+    private ByteArrayOutputStream continuationBlock;
+
+    volatile boolean closed = false;
+
+    _Http2Multiplexer(Http2Protocol protocol, RHSConnection connection, HttpProtoHandler handler) {
+        this.connection = connection;
+        this.handler = handler;
+        this.initialWindowSize = protocol.initialWindowSize();
+        this.maxConcurrentStreams = protocol.maxConcurrentStreams();
+        this.maxHeaderListSize = protocol.maxHeaderListSize();
+        this.in = connection.input;
+        this.out = connection.output;
+    }
+
+    /* ---------------- */
+    /* Read Loop        */
+    /* ---------------- */
+
+    /**
+     * @param expectedPreface what's left of the client's connection preface.
+     * @param upgradedRequest the HTTP/1.1 request that asked for h2c, which
+     *                        becomes stream 1.
+     */
+    void run(byte[] expectedPreface, @Nullable RHSConnection upgradedRequest, @Nullable byte[] upgradedBody) throws IOException {
+        try {
+            this.writeSettings();
+
+            byte[] preface = this.in.readNBytes(expectedPreface.length);
+            if (!Arrays.equals(preface, expectedPreface)) {
+                throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "Invalid connection preface.");
+            }
+            this.connection.logger.trace("Read connection preface, switched to HTTP/2.");
+
+            if (upgradedRequest != null) {
+                this.openUpgradedStream(upgradedRequest, upgradedBody);
+            }
+
+            byte[] header = new byte[_Http2Frames.FRAME_HEADER_LENGTH];
+            while (this.readFrameHeader(header)) {
+                int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = _Http2Frames.readInt(header, 5) & 0x7fffffff;
+
+                if (length > _Http2Frames.DEFAULT_MAX_FRAME_SIZE) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_FRAME_SIZE_ERROR, "Frame exceeds SETTINGS_MAX_FRAME_SIZE.");
+                }
+
+                byte[] payload = this.in.readNBytes(length);
+                if (payload.length != length) {
+                    throw new EOFException("Reached end of stream before frame was fully read.");
+                }
+
+                this.connection.logger.trace("Read frame: type=%d, flags=%d, stream=%d, length=%d", type, flags, streamId, length);
+
+                if (this.continuationStreamId != 0 && type != _Http2Frames.TYPE_CONTINUATION) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "Expected a CONTINUATION frame.");
+                }
+
+                try {
+                    this.handleFrame(type, flags, streamId, payload);
+                } catch (_Http2Exception e) {
+                    if (e.isConnectionError()) throw e;
+
+                    this.connection.logger.debug("Resetting stream %d: %s", e.streamId, e.getMessage());
+                    _Http2Stream stream = this.streams.remove(e.streamId);
+                    if (stream != null) {
+                        stream.onReset();
+                    }
+                    this.writeRstStream(e.streamId, e.errorCode);
+                }
+            }
+        } catch (_Http2Exception e) {
+            this.connection.logger.debug("Connection error, going away: %s", e.getMessage());
+            try {
+                this.writeGoAway(e.errorCode);
+            } catch (IOException ignored) {}
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * @return false, if the connection should be closed.
+     */
+    private boolean readFrameHeader(byte[] header) throws IOException {
+        int first;
+        while (true) {
+            if (this.goingAway && this.streams.isEmpty()) {
+                return false;
+            }
+
+            try {
+                first = this.in.read();
+                break;
+            } catch (SocketTimeoutException e) {
+                if (this.streams.isEmpty()) {
+                    this.connection.logger.debug("Connection is idle, going away.");
+                    this.writeGoAway(_Http2Frames.ERROR_NO_ERROR);
+                    return false;
+                }
+                // Otherwise, a stream is still working on its response.
+            }
+        }
+
+        if (first == -1) return false;
+
+        header[0] = (byte) first;
+        int read = this.in.readNBytes(header, 1, header.length - 1);
+        if (read != header.length - 1) {
+            throw new EOFException("Reached end of stream before frame header was fully read.");
+        }
+        return true;
+    }
+
+    private void handleFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        switch (type) {
+            case _Http2Frames.TYPE_DATA:
+                this.handleData(flags, streamId, payload);
+                return;
+
+            case _Http2Frames.TYPE_HEADERS:
+                this.handleHeaders(flags, streamId, payload);
+                return;
+
+            case _Http2Frames.TYPE_CONTINUATION:
+                this.handleContinuation(flags, streamId, payload);
+                return;
+
+            case _Http2Frames.TYPE_PRIORITY:
+                if (streamId == 0) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "PRIORITY on stream 0.");
+                }
+                if (payload.length != 5) {
+                    throw _Http2Exception.stream(_Http2Frames.ERROR_FRAME_SIZE_ERROR, streamId, "Invalid PRIORITY frame size.");
+                }
+                return; // We don't do prioritization.
+
+            case _Http2Frames.TYPE_RST_STREAM: {
+                if (streamId == 0 || streamId > this.lastStreamId) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "RST_STREAM on an idle stream.");
+                }
+                if (payload.length != 4) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_FRAME_SIZE_ERROR, "Invalid RST_STREAM frame size.");
+                }
+
+                _Http2Stream stream = this.streams.remove(streamId);
+                if (stream != null) {
+                    this.connection.logger.debug("Stream %d was reset by the peer (error %d).", streamId, _Http2Frames.readInt(payload, 0));
+                    stream.onReset();
+                    synchronized (this) {
+                        this.notifyAll(); // Wake up any writers.
+                    }
+                }
+                return;
+            }
+
+            case _Http2Frames.TYPE_SETTINGS:
+                if (streamId != 0) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "SETTINGS on a stream.");
+                }
+                if ((flags & _Http2Frames.FLAG_ACK) != 0) {
+                    if (payload.length != 0) {
+                        throw _Http2Exception.connection(_Http2Frames.ERROR_FRAME_SIZE_ERROR, "SETTINGS ACK with a payload.");
+                    }
+                    return;
+                }
+
+                this.applyPeerSettings(payload);
+                this.writeFrame(_Http2Frames.TYPE_SETTINGS, _Http2Frames.FLAG_ACK, 0, payload, 0, 0);
+                return;
+
+            case _Http2Frames.TYPE_PUSH_PROMISE:
+                throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "Clients cannot push.");
+
+            case _Http2Frames.TYPE_PING:
+                if (streamId != 0) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "PING on a stream.");
+                }
+                if (payload.length != 8) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_FRAME_SIZE_ERROR, "Invalid PING frame size.");
+                }
+                if ((flags & _Http2Frames.FLAG_ACK) == 0) {
+                    this.writeFrame(_Http2Frames.TYPE_PING, _Http2Frames.FLAG_ACK, 0, payload, 0, payload.length);
+                }
+                return;
+
+            case _Http2Frames.TYPE_GOAWAY:
+                if (streamId != 0) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "GOAWAY on a stream.");
+                }
+                this.connection.logger.debug("Peer is going away, finishing up the remaining streams.");
+                this.goingAway = true;
+                return;
+
+            case _Http2Frames.TYPE_WINDOW_UPDATE:
+                this.handleWindowUpdate(streamId, payload);
+                return;
+
+            default:
+                return; // Unknown frames MUST be ignored.
+        }
+    }
+
+    private void handleData(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "DATA on stream 0.");
+        }
+        if (streamId > this.lastStreamId) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "DATA on an idle stream.");
+        }
+
+        // The connection window always gets replenished, even if the stream is gone.
+        if (payload.length > this.connectionReceiveWindow) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_FLOW_CONTROL_ERROR, "Peer overran the connection window.");
+        }
+        this.connectionReceiveWindow -= payload.length;
+        if (this.connectionReceiveWindow < CONNECTION_WINDOW_SIZE / 2) {
+            int increment = CONNECTION_WINDOW_SIZE - this.connectionReceiveWindow;
+            this.connectionReceiveWindow = CONNECTION_WINDOW_SIZE;
+            this.writeWindowUpdate(0, increment);
+        }
+
+        int dataStart = 0;
+        int dataEnd = payload.length;
+        if ((flags & _Http2Frames.FLAG_PADDED) != 0) {
+            dataEnd -= readPadding(payload, streamId);
+            dataStart = 1;
+        }
+
+        _Http2Stream stream = this.streams.get(streamId);
+        if (stream == null) {
+            return; // We already closed or reset the stream.
+        }
+
+        stream.receive(
+            Arrays.copyOfRange(payload, dataStart, dataEnd),
+            payload.length,
+            (flags & _Http2Frames.FLAG_END_STREAM) != 0
+        );
+    }
+
+    private void handleHeaders(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "HEADERS on an invalid stream id.");
+        }
+
+        int fragmentStart = 0;
+        int fragmentEnd = payload.length;
+        if ((flags & _Http2Frames.FLAG_PADDED) != 0) {
+            fragmentEnd -= readPadding(payload, streamId);
+            fragmentStart = 1;
+        }
+        if ((flags & _Http2Frames.FLAG_PRIORITY) != 0) {
+            fragmentStart += 5; // We don't do prioritization.
+            if (fragmentStart > fragmentEnd) {
+                throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "Invalid HEADERS frame size.");
+            }
+        }
+
+        boolean endStream = (flags & _Http2Frames.FLAG_END_STREAM) != 0;
+
+        if ((flags & _Http2Frames.FLAG_END_HEADERS) != 0) {
+            this.handleHeaderBlock(streamId, endStream, payload, fragmentStart, fragmentEnd - fragmentStart);
+        } else {
+            this.continuationStreamId = streamId;
+            this.continuationEndStream = endStream;
+            this.continuationBlock = new ByteArrayOutputStream();
+            this.continuationBlock.write(payload, fragmentStart, fragmentEnd - fragmentStart);
+        }
+    }
+
+    private void handleContinuation(int flags, int streamId, byte[] payload) throws IOException {
+        if (this.continuationStreamId == 0 || this.continuationStreamId != streamId) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "Unexpected CONTINUATION frame.");
+        }
+
+        this.continuationBlock.write(payload, 0, payload.length);
+        if (this.continuationBlock.size() > this.maxHeaderListSize) {
+            // We can't skip the block without desyncing HPACK.
+            throw _Http2Exception.connection(_Http2Frames.ERROR_ENHANCE_YOUR_CALM, "Header block is too large.");
+        }
+
+        if ((flags & _Http2Frames.FLAG_END_HEADERS) != 0) {
+            byte[] block = this.continuationBlock.toByteArray();
+            this.continuationStreamId = 0;
+            this.continuationBlock = null;
+            this.handleHeaderBlock(streamId, this.continuationEndStream, block, 0, block.length);
+        }
+    }
+
+    private void handleHeaderBlock(int streamId, boolean endStream, byte[] block, int off, int len) throws IOException {
+        // Always decode, otherwise we'd desync the dynamic table.
+        List<String[]> fields = new ArrayList<>();
+        try {
+            this.decoder.decode(block, off, len, (name, value) -> fields.add(new String[] {
+                    name,
+                    value
+            }));
+        } catch (HpackException e) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_COMPRESSION_ERROR, e.getMessage());
+        }
+
+        _Http2Stream existing = this.streams.get(streamId);
+        if (existing != null) {
+            // Trailers, which we don't expose.
+            if (!endStream) {
+                throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Trailers must end the stream.");
+            }
+            existing.closeRemote();
+            return;
+        }
+
+        if (streamId <= this.lastStreamId) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_STREAM_CLOSED, "HEADERS on a closed stream.");
+        }
+        this.lastStreamId = streamId;
+
+        if (this.goingAway || this.streams.size() >= this.maxConcurrentStreams) {
+            throw _Http2Exception.stream(_Http2Frames.ERROR_REFUSED_STREAM, streamId, "Too many concurrent streams.");
+        }
+
+        this.openStream(streamId, endStream, fields);
+    }
+
+    private void handleWindowUpdate(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame size.");
+        }
+
+        int increment = _Http2Frames.readInt(payload, 0) & 0x7fffffff;
+
+        synchronized (this) {
+            if (streamId == 0) {
+                if (increment == 0) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "WINDOW_UPDATE with an increment of 0.");
+                }
+
+                this.connectionSendWindow += increment;
+                if (this.connectionSendWindow > _Http2Frames.MAX_WINDOW_SIZE) {
+                    throw _Http2Exception.connection(_Http2Frames.ERROR_FLOW_CONTROL_ERROR, "Connection window overflowed.");
+                }
+            } else {
+                if (increment == 0) {
+                    throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "WINDOW_UPDATE with an increment of 0.");
+                }
+
+                _Http2Stream stream = this.streams.get(streamId);
+                if (stream == null) return;
+
+                stream.sendWindow += increment;
+                if (stream.sendWindow > _Http2Frames.MAX_WINDOW_SIZE) {
+                    throw _Http2Exception.stream(_Http2Frames.ERROR_FLOW_CONTROL_ERROR, streamId, "Stream window overflowed.");
+                }
+            }
+
+            this.notifyAll();
+        }
+    }
+
+    void applyPeerSettings(byte[] payload) throws _Http2Exception {
+        if (payload.length % 6 != 0) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_FRAME_SIZE_ERROR, "Invalid SETTINGS frame size.");
+        }
+
+        synchronized (this) {
+            for (int off = 0; off < payload.length; off += 6) {
+                int id = ((payload[off] & 0xff) << 8) | (payload[off + 1] & 0xff);
+                int value = _Http2Frames.readInt(payload, off + 2);
+
+                switch (id) {
+                    case _Http2Frames.SETTINGS_ENABLE_PUSH:
+                        if (value != 0 && value != 1) {
+                            throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH.");
+                        }
+                        break;
+
+                    case _Http2Frames.SETTINGS_INITIAL_WINDOW_SIZE: {
+                        if (value < 0) {
+                            throw _Http2Exception.connection(_Http2Frames.ERROR_FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE.");
+                        }
+
+                        int delta = value - this.peerInitialWindowSize;
+                        this.peerInitialWindowSize = value;
+                        for (_Http2Stream stream : this.streams.values()) {
+                            stream.sendWindow += delta;
+                            if (stream.sendWindow > _Http2Frames.MAX_WINDOW_SIZE) {
+                                throw _Http2Exception.connection(_Http2Frames.ERROR_FLOW_CONTROL_ERROR, "Stream window overflowed.");
+                            }
+                        }
+                        this.notifyAll();
+                        break;
+                    }
+
+                    case _Http2Frames.SETTINGS_MAX_FRAME_SIZE:
+                        // We always send the minimum, so we only need to validate it.
+                        if (value < _Http2Frames.DEFAULT_MAX_FRAME_SIZE || value > _Http2Frames.MAX_MAX_FRAME_SIZE) {
+                            throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE.");
+                        }
+                        break;
+
+                    case _Http2Frames.SETTINGS_HEADER_TABLE_SIZE:
+                        synchronized (this.writeLock) {
+                            this.encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                        }
+                        break;
+
+                    case _Http2Frames.SETTINGS_MAX_CONCURRENT_STREAMS: // We never push.
+                    case _Http2Frames.SETTINGS_MAX_HEADER_LIST_SIZE:
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    private static int readPadding(byte[] payload, int streamId) throws _Http2Exception {
+        if (payload.length == 0) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_FRAME_SIZE_ERROR, "Padded frame without a pad length.");
+        }
+
+        int padLength = payload[0] & 0xff;
+        if (padLength >= payload.length) {
+            throw _Http2Exception.connection(_Http2Frames.ERROR_PROTOCOL_ERROR, "Padding exceeds the frame size.");
+        }
+        return padLength;
+    }
+
+    /* ---------------- */
+    /* Streams          */
+    /* ---------------- */
+
+    private void openStream(int streamId, boolean endStream, List<String[]> fields) throws IOException {
+        String method = null;
+        String scheme = null;
+        String path = null;
+        String authority = null;
+
+        CaseInsensitiveMultiMap.Builder<HeaderValue> headers = new CaseInsensitiveMultiMap.Builder<>();
+        List<String> cookies = new ArrayList<>(1);
+        boolean regularHeaderSeen = false;
+        boolean hasHost = false;
+        long headerListSize = 0;
+
+        for (String[] field : fields) {
+            String name = field[0];
+            String value = field[1];
+            headerListSize += name.length() + value.length() + 32;
+
+            if (name.startsWith(":")) {
+                if (regularHeaderSeen) {
+                    throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Pseudo-header after a regular header.");
+                }
+
+                switch (name) {
+                    case ":method":
+                        if (method != null) throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Duplicate :method.");
+                        method = value;
+                        break;
+                    case ":scheme":
+                        if (scheme != null) throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Duplicate :scheme.");
+                        scheme = value;
+                        break;
+                    case ":path":
+                        if (path != null) throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Duplicate :path.");
+                        path = value;
+                        break;
+                    case ":authority":
+                        if (authority != null) throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Duplicate :authority.");
+                        authority = value;
+                        break;
+                    default:
+                        throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Unknown pseudo-header: " + name);
+                }
+                continue;
+            }
+
+            regularHeaderSeen = true;
+
+            if (!name.equals(name.toLowerCase()) || CONNECTION_SPECIFIC_HEADERS.contains(name)) {
+                throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Malformed header: " + name);
+            }
+
+            if (name.equals("host")) {
+                hasHost = true;
+            }
+
+            if (name.equals("cookie")) {
+                // Cookies may be split up to improve compression.
+                cookies.add(value);
+            } else {
+                headers.put(name, new HeaderValue(value));
+            }
+        }
+
+        if (method == null || scheme == null || path == null || path.isEmpty()) {
+            throw _Http2Exception.stream(_Http2Frames.ERROR_PROTOCOL_ERROR, streamId, "Missing a required pseudo-header.");
+        }
+
+        if (!cookies.isEmpty()) {
+            headers.put("cookie", new HeaderValue(String.join("; ", cookies)));
+        }
+        if (authority != null && !hasHost) {
+            // Let everything else pretend this was HTTP/1.1.
+            headers.put("host", new HeaderValue(authority));
+        }
+
+        _Http2Stream stream = this.newStream(streamId);
+        if (endStream) {
+            stream.closeRemote();
+        }
+
+        if (headerListSize > this.maxHeaderListSize) {
+            this.connection.logger.debug("Rejecting stream %d, header list was %d bytes.", streamId, headerListSize);
+            this.streams.remove(streamId);
+            this.writeHeaders(streamId, 431, Collections.emptyMap(), true);
+            if (!endStream) {
+                this.writeRstStream(streamId, _Http2Frames.ERROR_NO_ERROR);
+            }
+            return;
+        }
+
+        CaseInsensitiveMultiMap<HeaderValue> built = headers.build();
+        SimpleUri uri = SimpleUri.from(built.getSingleOrDefault("Host", HeaderValue.EMPTY).raw(), path);
+        this.startStream(stream, method, uri, built, endStream ? null : stream.new BodyInputStream());
+    }
+
+    private void openUpgradedStream(RHSConnection request, @Nullable byte[] body) throws IOException {
+        CaseInsensitiveMultiMap.Builder<HeaderValue> headers = new CaseInsensitiveMultiMap.Builder<>();
+        for (Map.Entry<String, List<HeaderValue>> entry : request.headers.entrySet()) {
+            if (CONNECTION_SPECIFIC_HEADERS.contains(entry.getKey().toLowerCase())) continue;
+            headers.putAll(entry.getKey(), entry.getValue());
+        }
+
+        // The request that upgraded becomes stream 1, which is already half-closed.
+        this.lastStreamId = 1;
+        _Http2Stream stream = this.newStream(1);
+        stream.receiveUpgradeBody(body);
+
+        this.startStream(stream, request.method, request.uri, headers.build(), body == null ? null : stream.new BodyInputStream());
+    }
+
+    private synchronized _Http2Stream newStream(int streamId) {
+        _Http2Stream stream = new _Http2Stream(this, streamId, this.peerInitialWindowSize, this.initialWindowSize);
+        this.streams.put(streamId, stream);
+        return stream;
+    }
+
+    private void startStream(_Http2Stream stream, String method, SimpleUri uri, CaseInsensitiveMultiMap<HeaderValue> headers, @Nullable InputStream body) {
+        RHSConnection streamConnection = new RHSConnection(
+            this.connection.logger,
+            UNSUPPORTED_OUTPUT, new OverzealousInputStream(body == null ? EMPTY_INPUT : body),
+            this.connection.guessedMtu,
+            this.connection.keepAliveSeconds,
+            this.connection.soTimeout,
+            this.connection.remoteAddress, this.connection.serverPort,
+            method, uri, headers,
+            HttpVersion.HTTP_2_0,
+            this.connection.tlsVersion,
+            this.connection.config
+        );
+
+        String expect = headers.getSingleOrDefault("Expect", HeaderValue.EMPTY).raw();
+        stream.expectingContinue = body != null && "100-continue".equalsIgnoreCase(expect);
+
+        HttpSession session = new StreamSession(streamConnection, body);
+        this.connection.logger.debug("Opened stream %d: %s %s", stream.id, method, uri);
+
+        stream.task = this.connection.config.taskExecutor().execute(() -> this.serve(stream, session));
+    }
+
+    private void serve(_Http2Stream stream, HttpSession session) {
+        try {
+            HttpResponse response;
+            try {
+                response = this.handler.handle(session);
+            } catch (HttpException e) {
+                response = HttpResponse.newFixedLengthResponse(e.status);
+            }
+
+            if (response == null || response == HttpResponse.NO_RESPONSE) {
+                throw new DropConnectionException();
+            }
+
+            this.writeResponse(stream, session.rawMethod(), response);
+        } catch (DropConnectionException e) {
+            // Only drop this stream, the others are still good.
+            this.connection.logger.debug("Dropping stream %d.", stream.id);
+            this.resetStream(stream, _Http2Frames.ERROR_CANCEL);
+        } catch (Throwable t) {
+            if (stream.reset || this.closed) {
+                this.connection.logger.debug("An error occurred whilst handling stream %d, swallowing it:\n%s", stream.id, t);
+            } else {
+                this.connection.logger.severe("An error occurred whilst handling stream %d:\n%s", stream.id, t);
+                this.resetStream(stream, _Http2Frames.ERROR_INTERNAL_ERROR);
+            }
+        } finally {
+            if (this.streams.remove(stream.id) != null && !stream.isRemoteClosed() && !this.closed) {
+                // We've responded but the client is still sending us a body. Tell it to stop.
+                try {
+                    this.writeRstStream(stream.id, _Http2Frames.ERROR_NO_ERROR);
+                } catch (IOException ignored) {}
+            }
+            Thread.interrupted(); // Clear.
+        }
+    }
+
+    private void resetStream(_Http2Stream stream, int errorCode) {
+        if (this.streams.remove(stream.id) == null) return;
+        stream.onReset();
+        try {
+            this.writeRstStream(stream.id, errorCode);
+        } catch (IOException ignored) {}
+    }
+
+    private void writeResponse(_Http2Stream stream, String method, HttpResponse response) throws IOException {
+        try (response.content) {
+            HttpStatus status = response.status;
+            long length = response.content.length();
+
+            Map<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, String> entry : response.headers.entrySet()) {
+                String name = entry.getKey().toLowerCase();
+                if (CONNECTION_SPECIFIC_HEADERS.contains(name)) continue;
+                headers.put(name, entry.getValue());
+            }
+
+            boolean hasBody;
+            switch (method) {
+                case "HEAD":
+                    // We must reply with the actual status code and content headers
+                    // but SHOULD NOT send a body.
+                    hasBody = false;
+                    if (length >= 0) {
+                        headers.put("content-length", String.valueOf(length));
+                    }
+                    break;
+
+                case "OPTIONS":
+                    // We must reply with NO_CONTENT but NOT the body headers.
+                    status = StandardHttpStatus.NO_CONTENT;
+                    hasBody = false;
+                    break;
+
+                default:
+                    hasBody = length != 0;
+                    if (length >= 0) {
+                        headers.put("content-length", String.valueOf(length));
+                    }
+                    break;
+            }
+
+            headers.put("date", RHSConnection.httpTime());
+            headers.put("server", this.connection.config.serverHeader());
+
+            this.writeHeaders(stream.id, status.statusCode(), headers, !hasBody);
+
+            if (hasBody) {
+                try (OutputStream out = stream.new BodyOutputStream()) {
+                    response.content.write(_Http2Frames.DEFAULT_MAX_FRAME_SIZE, out);
+                }
+            }
+        }
+    }
+
+    private void close() {
+        this.closed = true;
+        synchronized (this) {
+            this.notifyAll();
+        }
+
+        for (_Http2Stream stream : this.streams.values()) {
+            stream.onReset();
+
+            Task task = stream.task;
+            if (task != null) {
+                task.interrupt();
+            }
+        }
+        this.streams.clear();
+    }
+
+    /* ---------------- */
+    /* Writing          */
+    /* ---------------- */
+
+    private void writeSettings() throws IOException {
+        byte[] settings = new byte[4 * 6];
+        putSetting(settings, 0, _Http2Frames.SETTINGS_ENABLE_PUSH, 0);
+        putSetting(settings, 6, _Http2Frames.SETTINGS_MAX_CONCURRENT_STREAMS, this.maxConcurrentStreams);
+        putSetting(settings, 12, _Http2Frames.SETTINGS_INITIAL_WINDOW_SIZE, this.initialWindowSize);
+        putSetting(settings, 18, _Http2Frames.SETTINGS_MAX_HEADER_LIST_SIZE, this.maxHeaderListSize);
+        this.writeFrame(_Http2Frames.TYPE_SETTINGS, 0, 0, settings, 0, settings.length);
+
+        this.connectionReceiveWindow = CONNECTION_WINDOW_SIZE;
+        this.writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - _Http2Frames.DEFAULT_WINDOW_SIZE);
+    }
+
+    private static void putSetting(byte[] dest, int off, int id, int value) {
+        dest[off] = (byte) (id >>> 8);
+        dest[off + 1] = (byte) id;
+        _Http2Frames.writeInt(dest, off + 2, value);
+    }
+
+    void writeContinue(_Http2Stream stream) throws IOException {
+        this.writeHeaders(stream.id, 100, Collections.emptyMap(), false);
+    }
+
+    private void writeHeaders(int streamId, int status, Map<String, String> headers, boolean endStream) throws IOException {
+        // Blocks have to go out in the order they were encoded and uninterrupted,
+        // hence the single lock.
+        synchronized (this.writeLock) {
+            byte[] bytes = this.encoder
+                .add(":status", String.valueOf(status))
+                .addAll(headers)
+                .finish();
+
+            int off = 0;
+            do {
+                int len = Math.min(bytes.length - off, _Http2Frames.DEFAULT_MAX_FRAME_SIZE);
+                boolean first = off == 0;
+                boolean last = off + len == bytes.length;
+
+                int flags = 0;
+                if (last) flags |= _Http2Frames.FLAG_END_HEADERS;
+                if (first && endStream) flags |= _Http2Frames.FLAG_END_STREAM;
+
+                this.writeFrame(first ? _Http2Frames.TYPE_HEADERS : _Http2Frames.TYPE_CONTINUATION, flags, streamId, bytes, off, len);
+                off += len;
+            } while (off < bytes.length);
+        }
+    }
+
+    /**
+     * Blocks until the stream and connection windows allow for the data to be
+     * sent.
+     */
+    void writeData(_Http2Stream stream, byte[] data, int off, int len, boolean endStream) throws IOException {
+        do {
+            int chunk;
+            synchronized (this) {
+                try {
+                    while (len > 0 && (stream.sendWindow <= 0 || this.connectionSendWindow <= 0) && !stream.reset && !this.closed) {
+                        this.wait();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+
+                if (stream.reset) throw new IOException("Stream was reset.");
+                if (this.closed) throw new IOException("Connection was closed.");
+
+                chunk = (int) Math.min(len, Math.min(stream.sendWindow, this.connectionSendWindow));
+                stream.sendWindow -= chunk;
+                this.connectionSendWindow -= chunk;
+            }
+
+            boolean last = chunk == len;
+            this.writeFrame(_Http2Frames.TYPE_DATA, last && endStream ? _Http2Frames.FLAG_END_STREAM : 0, stream.id, data, off, chunk);
+            off += chunk;
+            len -= chunk;
+        } while (len > 0);
+    }
+
+    void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        _Http2Frames.writeInt(payload, 0, increment);
+        this.writeFrame(_Http2Frames.TYPE_WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+    }
+
+    private void writeRstStream(int streamId, int errorCode) throws IOException {
+        byte[] payload = new byte[4];
+        _Http2Frames.writeInt(payload, 0, errorCode);
+        this.writeFrame(_Http2Frames.TYPE_RST_STREAM, 0, streamId, payload, 0, payload.length);
+    }
+
+    private void writeGoAway(int errorCode) throws IOException {
+        byte[] payload = new byte[8];
+        _Http2Frames.writeInt(payload, 0, this.lastStreamId);
+        _Http2Frames.writeInt(payload, 4, errorCode);
+        this.writeFrame(_Http2Frames.TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int off, int len) throws IOException {
+        byte[] header = new byte[_Http2Frames.FRAME_HEADER_LENGTH];
+        _Http2Frames.writeHeader(header, len, type, flags, streamId);
+
+        synchronized (this.writeLock) {
+            this.out.write(header);
+            this.out.write(payload, off, len);
+            this.out.flush();
+        }
+    }
+
+    private static class StreamSession extends HttpSession {
+
+        StreamSession(RHSConnection connection, @Nullable InputStream bodyIn) {
+            super(connection, bodyIn);
+        }
+
+    }
+
+}
@@ -0,0 +1,254 @@
+package co.casterlabs.rhs.protocol.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.rhs.util.TaskExecutor.Task;
+
+/**
+ * State for a single stream. Flow control state is guarded by the
+ * multiplexer's monitor.
+ */
+class _Http2Stream {
+    final _Http2Multiplexer mux;
+    final int id;
+
+    /* Send side, guarded by mux */
+    long sendWindow;
+
+    /* Receive side, guarded by this */
+    private final ArrayDeque<byte[]> received = new ArrayDeque<>();
+    private int receiveWindow;
+    private int unacknowledged = 0;
+    private boolean remoteClosed = false;
+
+    volatile boolean reset = false;
+    volatile boolean expectingContinue = false;
+    volatile Task task;
+
+    _Http2Stream(_Http2Multiplexer mux, int id, long sendWindow, int receiveWindow) {
+        this.mux = mux;
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = receiveWindow;
+    }
+
+    /* ---------------- */
+    /* Receiving        */
+    /* ---------------- */
+
+    /**
+     * Called from the read loop.
+     * 
+     * @param flowControlled the full payload length, including padding.
+     */
+    synchronized void receive(byte[] data, int flowControlled, boolean endStream) throws _Http2Exception {
+        if (this.remoteClosed) {
+            throw _Http2Exception.stream(_Http2Frames.ERROR_STREAM_CLOSED, this.id, "Received DATA after END_STREAM.");
+        }
+
+        if (flowControlled > this.receiveWindow) {
+            throw _Http2Exception.stream(_Http2Frames.ERROR_FLOW_CONTROL_ERROR, this.id, "Peer overran the stream window.");
+        }
+        this.receiveWindow -= flowControlled;
+
+        // Padding never makes it to the reader, so we give it back immediately.
+        this.unacknowledged += flowControlled - data.length;
+
+        if (data.length > 0) {
+            this.received.add(data);
+        }
+        if (endStream) {
+            this.remoteClosed = true;
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * The body of the request that upgraded the connection has already been
+     * read in full, so it doesn't count towards the window.
+     */
+    synchronized void receiveUpgradeBody(@Nullable byte[] body) {
+        if (body != null && body.length > 0) {
+            this.received.add(body);
+        }
+        this.remoteClosed = true;
+        this.notifyAll();
+    }
+
+    synchronized void closeRemote() {
+        this.remoteClosed = true;
+        this.notifyAll();
+    }
+
+    synchronized boolean isRemoteClosed() {
+        return this.remoteClosed;
+    }
+
+    synchronized void onReset() {
+        this.reset = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Acknowledges consumed bytes once enough have piled up, or when the reader
+     * is about to block.
+     */
+    private void acknowledge(boolean aboutToBlock) throws IOException {
+        int toAck;
+        synchronized (this) {
+            if (this.remoteClosed || this.unacknowledged == 0) return;
+
+            boolean willBlock = aboutToBlock && this.received.isEmpty();
+            if (!willBlock && this.unacknowledged < this.mux.initialWindowSize / 2) return;
+
+            toAck = this.unacknowledged;
+            this.unacknowledged = 0;
+            this.receiveWindow += toAck;
+        }
+        this.mux.writeWindowUpdate(this.id, toAck);
+    }
+
+    class BodyInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        private byte[] current;
+        private int currentPos;
+
+        @Override
+        public int read() throws IOException {
+            int read = this.read(this.single, 0, 1);
+            return read == -1 ? -1 : this.single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            if (expectingContinue) {
+                expectingContinue = false;
+                mux.writeContinue(_Http2Stream.this);
+            }
+
+            if (this.current == null) {
+                if (!this.next()) return -1;
+            }
+
+            int read = Math.min(len, this.current.length - this.currentPos);
+            System.arraycopy(this.current, this.currentPos, b, off, read);
+            this.currentPos += read;
+
+            if (this.currentPos == this.current.length) {
+                this.current = null;
+            }
+
+            synchronized (_Http2Stream.this) {
+                unacknowledged += read;
+            }
+            acknowledge(false);
+
+            return read;
+        }
+
+        private boolean next() throws IOException {
+            // Make sure the peer can actually send us more before we sleep.
+            acknowledge(true);
+
+            synchronized (_Http2Stream.this) {
+                try {
+                    while (received.isEmpty()) {
+                        if (reset) throw new IOException("Stream was reset.");
+                        if (mux.closed) throw new IOException("Connection was closed.");
+                        if (remoteClosed) return false;
+                        _Http2Stream.this.wait();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+
+                this.current = received.poll();
+                this.currentPos = 0;
+                return true;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (_Http2Stream.this) {
+                int available = this.current == null ? 0 : this.current.length - this.currentPos;
+                for (byte[] chunk : received) {
+                    available += chunk.length;
+                }
+                return available;
+            }
+        }
+
+    }
+
+    /* ---------------- */
+    /* Sending          */
+    /* ---------------- */
+
+    /**
+     * Buffers up to a frame's worth of data before handing it off to the
+     * multiplexer. Closing this ends the stream.
+     */
+    class BodyOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[_Http2Frames.DEFAULT_MAX_FRAME_SIZE];
+        private int bufferPos = 0;
+        private boolean closed = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.bufferPos == this.buffer.length) {
+                this.flushBuffer(false);
+            }
+            this.buffer[this.bufferPos++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.bufferPos == this.buffer.length) {
+                    this.flushBuffer(false);
+                }
+
+                int toCopy = Math.min(len, this.buffer.length - this.bufferPos);
+                System.arraycopy(b, off, this.buffer, this.bufferPos, toCopy);
+                this.bufferPos += toCopy;
+                off += toCopy;
+                len -= toCopy;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.bufferPos > 0) {
+                this.flushBuffer(false);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) return;
+            this.closed = true;
+            this.flushBuffer(true);
+        }
+
+        private void flushBuffer(boolean endStream) throws IOException {
+            if (this.closed && !endStream) {
+                throw new IOException("Stream is closed.");
+            }
+
+            mux.writeData(_Http2Stream.this, this.buffer, 0, this.bufferPos, endStream);
+            this.bufferPos = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,49 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+
+import co.casterlabs.rhs.HttpServer;
+import co.casterlabs.rhs.HttpServerBuilder;
+import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
+import co.casterlabs.rhs.protocol.http.HttpProtocol;
+import co.casterlabs.rhs.protocol.http.HttpProtocol.HttpProtoHandler;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http2.Http2Protocol;
+import xyz.e3ndr.fastloggingframework.FastLoggingFramework;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+public class H2Test {
+
+    public static void main(String[] args) throws IOException, UnrecoverableKeyException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        FastLoggingFramework.setDefaultLevel(LogLevel.ALL);
+
+        HttpProtoHandler handler = (session) -> {
+            if (session.body().present()) {
+                try {
+                    return HttpResponse.newFixedLengthResponse(StandardHttpStatus.OK, session.body().bytes());
+                } catch (IOException e) {
+                    return HttpResponse.INTERNAL_ERROR;
+                }
+            }
+
+            String str = String.format("Hello %s over %s!", session.remoteNetworkAddress(), session.httpVersion());
+            if (session.uri().path.startsWith("/chunked")) {
+                return HttpResponse.newChunkedResponse(StandardHttpStatus.OK, new ByteArrayInputStream(str.getBytes()));
+            } else {
+                return HttpResponse.newFixedLengthResponse(StandardHttpStatus.OK, str);
+            }
+        };
+
+        HttpServer server = new HttpServerBuilder()
+            .withPort(8080)
+            .with(new HttpProtocol(), handler)
+            .with(new Http2Protocol(), handler)
+            .build();
+
+        server.start(); // Try `curl --http2-prior-knowledge http://127.0.0.1:8080` or `curl --http2 http://127.0.0.1:8080`
+    }
+
+}
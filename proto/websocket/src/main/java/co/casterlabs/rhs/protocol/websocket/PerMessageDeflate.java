@@ -0,0 +1,56 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.util.zip.Deflater;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.With;
+import lombok.experimental.Accessors;
+
+/**
+ * Settings for the <code>permessage-deflate</code> extension (RFC 7692).
+ *
+ * <p>
+ * Each connection that keeps its compression context (the default) holds on to
+ * a {@link Deflater} and an {@link java.util.zip.Inflater} for its whole lifetime, which is
+ * roughly 300kb of native memory. If you have lots of connections you can turn
+ * off the context takeover for either direction, in which case the
+ * (de)compressors are borrowed from a shared pool for each message instead.
+ * This trades some compression ratio for memory.
+ */
+@With
+@Getter
+@AllArgsConstructor
+@Accessors(fluent = true)
+public class PerMessageDeflate {
+    /**
+     * The zlib compression level, 0-9 or -1 for the default.
+     */
+    private final int compressionLevel;
+
+    /**
+     * Messages smaller than this are sent uncompressed.
+     */
+    private final int minimumSize;
+
+    /**
+     * Whether or not we keep our compression context between messages.
+     */
+    private final boolean serverContextTakeover;
+
+    /**
+     * Whether or not we allow the client to keep its compression context between
+     * messages.
+     */
+    private final boolean clientContextTakeover;
+
+    /**
+     * How many idle deflaters and inflaters to keep around for reuse.
+     */
+    private final int poolSize;
+
+    public PerMessageDeflate() {
+        this(Deflater.DEFAULT_COMPRESSION, 256, true, true, 64);
+    }
+
+}
@@ -0,0 +1,55 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.With;
+import lombok.experimental.Accessors;
+
+/**
+ * Bounds for a websocket's outbound queue, which is what
+ * {@link Websocket#sendAsync(String)} and {@link WebsocketGroup} write into.
+ * All sizes are in bytes of payload.
+ *
+ * <p>
+ * Once the queue grows past the high watermark the websocket reports itself as
+ * unwritable, and it becomes writable again once the queue has drained below
+ * the low watermark. See {@link WebsocketListener#onWritabilityChanged}.
+ */
+@With
+@Getter
+@AllArgsConstructor
+@Accessors(fluent = true)
+public class SendQueueLimits {
+    public static final SendQueueLimits DEFAULT = new SendQueueLimits();
+
+    private final long highWatermark;
+
+    private final long lowWatermark;
+
+    /**
+     * The hard limit, anything sent past this is handled according to the
+     * {@link #overflowPolicy()}.
+     */
+    private final long maxQueuedBytes;
+
+    private final @NonNull OverflowPolicy overflowPolicy;
+
+    public SendQueueLimits() {
+        this(256 * 1024, 64 * 1024, 1024 * 1024, OverflowPolicy.CLOSE);
+    }
+
+    public static enum OverflowPolicy {
+        /**
+         * The message that didn't fit is dropped (its future completes
+         * exceptionally) and the connection stays open.
+         */
+        DROP,
+
+        /**
+         * The connection is closed, along with everything still in its queue.
+         */
+        CLOSE,
+    }
+
+}
@@ -2,6 +2,10 @@ package co.casterlabs.rhs.protocol.websocket;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jetbrains.annotations.Nullable;
 
@@ -9,6 +13,7 @@ import lombok.NonNull;
 
 public abstract class Websocket implements Closeable {
     private Object attachment;
+    private volatile SendQueueLimits sendQueueLimits = SendQueueLimits.DEFAULT;
 
     public void attachment(Object attachment) {
         this.attachment = attachment;
@@ -19,6 +24,18 @@ public abstract class Websocket implements Closeable {
         return (T) this.attachment;
     }
 
+    /**
+     * Changes the bounds of this connection's outbound queue. This is usually set
+     * in {@link WebsocketListener#onOpen(Websocket)}.
+     */
+    public void sendQueueLimits(@NonNull SendQueueLimits limits) {
+        this.sendQueueLimits = limits;
+    }
+
+    public SendQueueLimits sendQueueLimits() {
+        return this.sendQueueLimits;
+    }
+
     public abstract WebsocketSession session();
 
     public abstract @Nullable String protocol();
@@ -38,17 +55,139 @@ public abstract class Websocket implements Closeable {
     public abstract void send(@NonNull byte[] bytes) throws IOException;
 
     /**
-     * Closes the connection.
+     * Sends part of a byte array to the receiving end, without copying it.
+     */
+    public abstract void send(@NonNull byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Sends the bytes between the buffer's position and limit to the receiving
+     * end. The buffer itself is left untouched. Heap buffers are written straight
+     * from their backing array, direct buffers are copied out a small chunk at a
+     * time.
+     */
+    public abstract void send(@NonNull ByteBuffer buffer) throws IOException;
+
+    /**
+     * Sends a text payload to the receiving end, encoding it straight into the
+     * outbound frames rather than into an intermediate byte[]. Handy for
+     * StringBuilders and other CharSequences you'd otherwise have to
+     * toString().
+     */
+    public abstract void sendText(@NonNull CharSequence text) throws IOException;
+
+    /**
+     * Sends a pre-encoded frame to the receiving end, see
+     * {@link WebsocketGroup}.
+     *
+     * @param frame the frame
+     */
+    public abstract void send(@NonNull WebsocketFrame frame) throws IOException;
+
+    /**
+     * Queues a text payload to be written by a writer thread, this never blocks.
+     * Messages are written in the order they were sent, including relative to the
+     * blocking send methods.
+     *
+     * @return a stage that completes once the message has been written, or
+     *         completes exceptionally if it was dropped or the connection closed.
+     */
+    public abstract CompletionStage<Void> sendAsync(@NonNull String message);
+
+    /**
+     * Queues a byte payload to be written by a writer thread, this never blocks.
+     *
+     * @implNote The array is not copied, so don't modify it until the returned
+     *           stage has completed.
+     *
+     * @see #sendAsync(String)
+     */
+    public abstract CompletionStage<Void> sendAsync(@NonNull byte[] bytes);
+
+    /**
+     * Queues a pre-encoded frame to be written by a writer thread, this never
+     * blocks.
+     *
+     * @see #sendAsync(String)
+     */
+    public abstract CompletionStage<Void> sendAsync(@NonNull WebsocketFrame frame);
+
+    /**
+     * @return false, if the outbound queue is over its high watermark and hasn't
+     *         yet drained below its low watermark.
+     */
+    public abstract boolean isWritable();
+
+    /**
+     * @return how many bytes of payload are waiting in the outbound queue.
+     */
+    public abstract long queuedBytes();
+
+    /**
+     * Closes the connection with {@link WebsocketCloseCode#NORMAL}.
      */
     @Override
     public abstract void close();
 
+    /**
+     * Starts the close handshake. Nothing more can be sent, and the connection is
+     * torn down once the client replies (or after a few seconds, if it doesn't).
+     *
+     * @param statusCode see {@link WebsocketCloseCode}.
+     * @param reason     at most 123 bytes once encoded as UTF-8.
+     */
+    public abstract void close(int statusCode, @Nullable String reason);
+
+    /**
+     * @return the status code from whichever side closed first, or
+     *         {@link WebsocketCloseCode#ABNORMAL} if the connection dropped. Only
+     *         meaningful once the websocket has closed.
+     */
+    public abstract int closeCode();
+
+    /**
+     * @return the reason to go with {@link #closeCode()}, if any.
+     */
+    public abstract @Nullable String closeReason();
+
     /* ---------------- */
     /* Internal Methods */
     /* ---------------- */
 
-    abstract void ping();
-
     abstract void process() throws IOException;
 
+    /**
+     * Like {@link #sendAsync(WebsocketFrame)}, but without the bookkeeping of a
+     * future.
+     *
+     * @return false, if the connection is closed or the queue overflowed.
+     */
+    abstract boolean offer(WebsocketFrame frame);
+
+    private final List<Runnable> closeHooks = new CopyOnWriteArrayList<>();
+    private volatile boolean closeHooksFired = false;
+
+    /**
+     * The hook runs once the connection is gone, or immediately if it already
+     * is.
+     */
+    void addCloseHook(Runnable hook) {
+        this.closeHooks.add(hook);
+        if (this.closeHooksFired && this.closeHooks.remove(hook)) {
+            hook.run();
+        }
+    }
+
+    void removeCloseHook(Runnable hook) {
+        this.closeHooks.remove(hook);
+    }
+
+    void fireCloseHooks() {
+        this.closeHooksFired = true;
+        for (Runnable hook : this.closeHooks) {
+            if (this.closeHooks.remove(hook)) {
+                hook.run();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,39 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+/**
+ * Status codes for the close handshake, see RFC 6455 section 7.4. Applications
+ * may use 3000-4999 for their own purposes.
+ */
+public class WebsocketCloseCode {
+    public static final int NORMAL = 1000;
+    public static final int GOING_AWAY = 1001;
+    public static final int PROTOCOL_ERROR = 1002;
+    public static final int UNSUPPORTED_DATA = 1003;
+
+    /**
+     * The close frame didn't have a status code. Never sent.
+     */
+    public static final int NO_STATUS = 1005;
+
+    /**
+     * The connection dropped without a close frame, or the peer stopped
+     * responding. Never sent.
+     */
+    public static final int ABNORMAL = 1006;
+
+    public static final int INVALID_PAYLOAD = 1007;
+    public static final int POLICY_VIOLATION = 1008;
+    public static final int MESSAGE_TOO_BIG = 1009;
+    public static final int MANDATORY_EXTENSION = 1010;
+    public static final int INTERNAL_ERROR = 1011;
+
+    /**
+     * @return true, if the code may be put in a close frame.
+     */
+    public static boolean isSendable(int code) {
+        if (code >= 3000 && code <= 4999) return true;
+        if (code < 1000 || code > 1014) return false;
+        return code != 1004 && code != NO_STATUS && code != ABNORMAL;
+    }
+
+}
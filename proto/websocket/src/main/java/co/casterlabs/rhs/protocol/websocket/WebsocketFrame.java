@@ -0,0 +1,52 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.nio.charset.StandardCharsets;
+
+import co.casterlabs.rhs.protocol.websocket._ImplWebsocket13.WebsocketOpCode;
+import lombok.NonNull;
+
+/**
+ * A message that has already been framed, so it can be written to any number
+ * of connections without re-encoding or copying it. Frames are immutable.
+ *
+ * @implNote Frames are never compressed, even for connections that negotiated
+ *           permessage-deflate (which is allowed, compression is per-message).
+ */
+public final class WebsocketFrame {
+    final byte[] encoded;
+
+    private WebsocketFrame(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    public static WebsocketFrame text(@NonNull String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return of(WebsocketOpCode.TEXT, bytes, 0, bytes.length);
+    }
+
+    public static WebsocketFrame binary(@NonNull byte[] bytes) {
+        return of(WebsocketOpCode.BINARY, bytes, 0, bytes.length);
+    }
+
+    public static WebsocketFrame binary(@NonNull byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " length=" + length + " bytes.length=" + bytes.length);
+        }
+        return of(WebsocketOpCode.BINARY, bytes, offset, length);
+    }
+
+    private static WebsocketFrame of(int op, byte[] bytes, int offset, int length) {
+        byte[] encoded = new byte[_ImplWebsocket13.headerLength(length) + length];
+        int headerLength = _ImplWebsocket13.writeHeader(encoded, true, false, op, length);
+        System.arraycopy(bytes, offset, encoded, headerLength, length);
+        return new WebsocketFrame(encoded);
+    }
+
+    /**
+     * @return the size of the frame on the wire, header included.
+     */
+    public int length() {
+        return this.encoded.length;
+    }
+
+}
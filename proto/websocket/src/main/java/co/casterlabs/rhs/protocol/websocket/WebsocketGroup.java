@@ -0,0 +1,139 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import lombok.NonNull;
+
+/**
+ * A set of websockets that you can broadcast to, like a chat room or a topic.
+ * Each message is framed once and the same bytes are handed to every member.
+ *
+ * <p>
+ * Broadcasts never block on a member. Frames are queued per connection and
+ * written by a writer thread, so a member that reads slowly only holds up
+ * itself. Members that fall too far behind are disconnected. Members are
+ * removed automatically once they close.
+ *
+ * <pre>
+ * WebsocketGroup lobby = new WebsocketGroup();
+ * ...
+ * public void onOpen(Websocket websocket) {
+ *     lobby.add(websocket);
+ * }
+ * ...
+ * lobby.broadcast("Hello everyone!");
+ * </pre>
+ */
+public class WebsocketGroup {
+    private final Map<Websocket, Runnable>[] shards; // Member -> close hook.
+    private final int mask;
+
+    public WebsocketGroup() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param shards how many ways to split the membership, rounded up to a
+     *               power of two. More shards means less contention when lots
+     *               of connections join and leave at once.
+     */
+    @SuppressWarnings("unchecked")
+    public WebsocketGroup(int shards) {
+        if (shards <= 0 || shards > (1 << 16)) throw new IllegalArgumentException("Shards must be between 1 and 65536.");
+
+        int size = Integer.highestOneBit(shards);
+        if (size < shards) size <<= 1;
+
+        this.shards = new Map[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.shards[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    private Map<Websocket, Runnable> shardOf(Websocket websocket) {
+        int hash = System.identityHashCode(websocket);
+        return this.shards[(hash ^ (hash >>> 16)) & this.mask];
+    }
+
+    /**
+     * @return false, if the websocket was already a member.
+     */
+    public boolean add(@NonNull Websocket websocket) {
+        Runnable hook = () -> this.shardOf(websocket).remove(websocket);
+        if (this.shardOf(websocket).putIfAbsent(websocket, hook) != null) {
+            return false;
+        }
+
+        websocket.addCloseHook(hook);
+        return true;
+    }
+
+    /**
+     * @return false, if the websocket wasn't a member.
+     */
+    public boolean remove(@NonNull Websocket websocket) {
+        Runnable hook = this.shardOf(websocket).remove(websocket);
+        if (hook == null) return false;
+
+        websocket.removeCloseHook(hook);
+        return true;
+    }
+
+    public boolean contains(@NonNull Websocket websocket) {
+        return this.shardOf(websocket).containsKey(websocket);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Websocket, Runnable> shard : this.shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return a snapshot of the current members.
+     */
+    public List<Websocket> members() {
+        List<Websocket> members = new ArrayList<>();
+        this.forEach(members::add);
+        return members;
+    }
+
+    public void forEach(@NonNull Consumer<Websocket> action) {
+        for (Map<Websocket, Runnable> shard : this.shards) {
+            shard.keySet().forEach(action);
+        }
+    }
+
+    public int broadcast(@NonNull String message) {
+        return this.broadcast(WebsocketFrame.text(message));
+    }
+
+    public int broadcast(@NonNull byte[] bytes) {
+        return this.broadcast(WebsocketFrame.binary(bytes));
+    }
+
+    /**
+     * Queues the frame for every member.
+     *
+     * @return how many members the frame was queued for.
+     */
+    public int broadcast(@NonNull WebsocketFrame frame) {
+        int queued = 0;
+        for (Map<Websocket, Runnable> shard : this.shards) {
+            for (Websocket websocket : shard.keySet()) {
+                if (websocket.offer(frame)) {
+                    queued++;
+                }
+            }
+        }
+        return queued;
+    }
+
+}
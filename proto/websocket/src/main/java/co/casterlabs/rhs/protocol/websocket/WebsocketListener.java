@@ -2,6 +2,8 @@ package co.casterlabs.rhs.protocol.websocket;
 
 import java.io.IOException;
 
+import org.jetbrains.annotations.Nullable;
+
 public interface WebsocketListener {
 
     /**
@@ -22,6 +24,15 @@ public interface WebsocketListener {
      */
     default void onBinary(Websocket websocket, byte[] bytes) throws IOException {}
 
+    /**
+     * Called when the outbound queue crosses its high watermark (writable=false)
+     * and again once it drains below its low watermark (writable=true). This is
+     * called on whichever thread caused the change, so it MUST NOT block.
+     *
+     * @see SendQueueLimits
+     */
+    default void onWritabilityChanged(Websocket websocket, boolean writable) {}
+
     /**
      * This is called in a {@link TaskType#LIGHT_IO} context. This method blocks
      * connection cleanup.
@@ -31,4 +42,17 @@ public interface WebsocketListener {
      */
     default void onClose(Websocket websocket) {}
 
+    /**
+     * This is called in a {@link TaskType#LIGHT_IO} context. This method blocks
+     * connection cleanup. By default this calls {@link #onClose(Websocket)}.
+     *
+     * @param statusCode the code from whichever side closed first, or
+     *                   {@link WebsocketCloseCode#ABNORMAL} if the connection
+     *                   dropped or the client stopped responding to pings. See
+     *                   {@link WebsocketCloseCode}.
+     */
+    default void onClose(Websocket websocket, int statusCode, @Nullable String reason) {
+        this.onClose(websocket);
+    }
+
 }
@@ -27,10 +27,10 @@ import co.casterlabs.rhs.protocol.exceptions.HttpException;
 import co.casterlabs.rhs.protocol.websocket.WebsocketProtocol.WebsocketHandler;
 import co.casterlabs.rhs.protocol.websocket.WebsocketResponse.AcceptedWebsocketResponse;
 import co.casterlabs.rhs.protocol.websocket.WebsocketResponse.RejectedWebsocketResponse;
-import co.casterlabs.rhs.util.TaskExecutor.Task;
+import co.casterlabs.rhs.util.TimerWheel;
 
 public class WebsocketProtocol extends RHSProtocol<WebsocketSession, WebsocketResponse, WebsocketHandler> {
-    private static final long PING_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    public static final long DEFAULT_PING_INTERVAL = TimeUnit.SECONDS.toMillis(5);
 
     private static final HashSet<String> ACCEPTED_VERSIONS = new HashSet<>(Arrays.asList("13"));
     private static final Map<String, String> WS_VERSION_REJECT_HEADERS = Map.of("Sec-WebSocket-Version", String.join(",", ACCEPTED_VERSIONS));
@@ -38,6 +38,41 @@ public class WebsocketProtocol extends RHSProtocol<WebsocketSession, WebsocketRe
     private static final HttpStatus HTTP_1_1_UPGRADE_REJECT = HttpStatus.adapt(400, "Failed to Upgrade");
     private static final HttpStatus WS_SUBPROTOCOL_REJECT = HttpStatus.adapt(400, "Unsupported Subprotocol");
 
+    private final @Nullable PerMessageDeflate deflate;
+    private final @Nullable _DeflatePool deflatePool;
+    private final long pingIntervalMillis;
+
+    /**
+     * Websockets without compression. Pass a {@link PerMessageDeflate} to
+     * {@link #WebsocketProtocol(PerMessageDeflate)} to enable it.
+     */
+    public WebsocketProtocol() {
+        this(null);
+    }
+
+    /**
+     * @param deflate the compression settings, or null to disable compression.
+     */
+    public WebsocketProtocol(@Nullable PerMessageDeflate deflate) {
+        this(deflate, DEFAULT_PING_INTERVAL);
+    }
+
+    /**
+     * @param deflate            the compression settings, or null to disable
+     *                           compression.
+     * @param pingIntervalMillis how long a connection may go without hearing
+     *                           from the client before we ping it, 0 to never
+     *                           ping. A client that hasn't sent anything (not
+     *                           even a pong) for twice this long is considered
+     *                           dead and dropped. Pings are scheduled on
+     *                           {@link TimerWheel#SHARED}.
+     */
+    public WebsocketProtocol(@Nullable PerMessageDeflate deflate, long pingIntervalMillis) {
+        this.deflate = deflate;
+        this.deflatePool = deflate == null ? null : new _DeflatePool(deflate.compressionLevel(), deflate.poolSize());
+        this.pingIntervalMillis = pingIntervalMillis;
+    }
+
     @Override
     public String name() {
         return "websocket";
@@ -79,6 +114,7 @@ public class WebsocketProtocol extends RHSProtocol<WebsocketSession, WebsocketRe
         return new WebsocketSession(connection, wsVersion, wsProtocols);
     }
 
+    @SuppressWarnings("deprecation")
     @Override
     public boolean process(WebsocketSession session, WebsocketResponse abstractResponse, RHSConnection connection) throws IOException, HttpException, DropConnectionException, InterruptedException {
         if (abstractResponse instanceof RejectedWebsocketResponse) {
@@ -102,6 +138,20 @@ public class WebsocketProtocol extends RHSProtocol<WebsocketSession, WebsocketRe
             connection.logger.debug("Using protocol %s.", response.acceptedProtocol);
         } // Otherwise, ignore.
 
+        _DeflateContext deflate = null;
+        if (this.deflate != null) {
+            deflate = _DeflateContext.negotiate(
+                connection.headers.getOrDefault("Sec-WebSocket-Extensions", Collections.emptyList()),
+                this.deflate,
+                this.deflatePool
+            );
+
+            if (deflate != null) {
+                responseHeaders.put("Sec-WebSocket-Extensions", deflate.responseHeader);
+                connection.logger.debug("Using extension %s.", deflate.responseHeader);
+            }
+        }
+
         // Generate the key and send it out.
         try {
             HeaderValue clientKey = connection.headers.getSingle("Sec-WebSocket-Key");
@@ -122,45 +172,33 @@ public class WebsocketProtocol extends RHSProtocol<WebsocketSession, WebsocketRe
             throw new HttpException(StandardHttpStatus.INTERNAL_ERROR);
         }
 
-        final Websocket websocket = pick(session, response, connection);
+        final Websocket websocket = pick(session, response, connection, deflate);
         try (websocket) {
             // Upgrade the connection.
             connection.respond(StandardHttpStatus.SWITCHING_PROTOCOLS, responseHeaders);
+            connection.output.flush();
             connection.logger.trace("WebSocket upgrade complete, ready to process frames.");
 
-            Thread readThread = Thread.currentThread();
-
-            final Task pingTask = connection.config.taskExecutor().execute(() -> {
-                try {
-                    while (true) {
-                        websocket.ping();
-                        Thread.sleep(PING_INTERVAL);
-                    }
-                } catch (Exception ignored) {
-                    readThread.interrupt();
-                }
-            });
-
             try {
-                websocket.process(); // This calls onOpen().
-            } catch (IOException ignored) {} finally {
-                pingTask.interrupt(); // Cancel that task in case it's still running.
-            }
+                websocket.process(); // This calls onOpen() and schedules the pings.
+            } catch (IOException ignored) {}
 
             return false;
         } finally {
+            websocket.fireCloseHooks();
+
             try {
-                response.listener.onClose(websocket);
+                response.listener.onClose(websocket, websocket.closeCode(), websocket.closeReason());
             } catch (Throwable t) {
                 connection.logger.warn("An exception occurred whilst closing listener:\n%s", t);
             }
         }
     }
 
-    private Websocket pick(WebsocketSession session, AcceptedWebsocketResponse response, RHSConnection connection) {
+    private Websocket pick(WebsocketSession session, AcceptedWebsocketResponse response, RHSConnection connection, @Nullable _DeflateContext deflate) {
         switch (session.websocketVersion()) {
             case 13:
-                return new _ImplWebsocket13(session, response, connection);
+                return new _ImplWebsocket13(session, response, connection, deflate, this.pingIntervalMillis);
 
             default:
                 // Shouldn't happen.
@@ -0,0 +1,40 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A listener that receives messages as streams, which are fed frame by frame
+ * as they arrive rather than being buffered into one array first. This keeps
+ * memory usage constant no matter how large the messages are, the
+ * <code>maxPayloadLength</code> still applies.
+ *
+ * <p>
+ * Streams are only valid until the method returns. Anything you didn't read is
+ * skipped, and pings that arrive in the middle of a message are still answered.
+ */
+public interface WebsocketStreamListener extends WebsocketListener {
+
+    /**
+     * This is called in a {@link TaskType#HEAVY_IO} context. This method blocks the
+     * next read.
+     *
+     * @param in the UTF-8 encoded message. Wrap it in an
+     *           {@link java.io.InputStreamReader} if you want characters. It's
+     *           validated as it's read, invalid UTF-8 throws and closes the
+     *           connection with {@link WebsocketCloseCode#INVALID_PAYLOAD}.
+     */
+    default void onTextStream(Websocket websocket, InputStream in) throws IOException {
+        this.onText(websocket, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * This is called in a {@link TaskType#HEAVY_IO} context. This method blocks the
+     * next read.
+     */
+    default void onBinaryStream(Websocket websocket, InputStream in) throws IOException {
+        this.onBinary(websocket, in.readAllBytes());
+    }
+
+}
@@ -0,0 +1,341 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.rhs.protocol.HeaderValue;
+
+/**
+ * The negotiated state of <code>permessage-deflate</code> for a single
+ * connection. Deflating must happen under the write lock, inflating only
+ * happens on the read thread.
+ */
+class _DeflateContext {
+    private static final byte[] EMPTY_BLOCK = {
+            0,
+            0,
+            (byte) 0xff,
+            (byte) 0xff
+    };
+
+    final String responseHeader;
+    final int minimumSize;
+
+    private final _DeflatePool pool;
+    private final boolean serverNoContextTakeover;
+    private final boolean clientNoContextTakeover;
+
+    // Only held between messages when the context is kept.
+    private @Nullable Deflater deflater;
+    private @Nullable Inflater inflater;
+    private volatile boolean released = false;
+
+    private _DeflateContext(String responseHeader, PerMessageDeflate config, _DeflatePool pool, boolean serverNoContextTakeover, boolean clientNoContextTakeover) {
+        this.responseHeader = responseHeader;
+        this.minimumSize = Math.max(1, config.minimumSize());
+        this.pool = pool;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+    }
+
+    /**
+     * @return the compressed message, without the trailing empty block.
+     */
+    byte[] deflate(ByteBuffer input) throws IOException {
+        if (this.released) throw new IOException("Websocket is closed.");
+
+        int length = input.remaining();
+        Deflater deflater = this.deflater == null ? this.pool.takeDeflater() : this.deflater;
+        try {
+            deflater.setInput(input); // Direct buffers are read in place.
+
+            byte[] out = new byte[Math.max(64, length / 2)];
+            int written = 0;
+            while (true) {
+                written += deflater.deflate(out, written, out.length - written, Deflater.SYNC_FLUSH);
+                if (written < out.length) break; // Flush completed.
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+
+            // A sync flush always ends with an empty stored block, which the RFC has us
+            // strip off.
+            return Arrays.copyOf(out, written - EMPTY_BLOCK.length);
+        } finally {
+            if (this.serverNoContextTakeover) {
+                this.pool.give(deflater);
+            } else {
+                this.deflater = deflater;
+            }
+        }
+    }
+
+    byte[] inflate(byte[] payload, int maxLength) throws IOException {
+        if (this.released) throw new IOException("Websocket is closed.");
+
+        Inflater inflater = this.inflater == null ? this.pool.takeInflater() : this.inflater;
+        try {
+            byte[] out = new byte[(int) Math.min(maxLength + 1L, Math.max(64, payload.length * 4L))];
+            int written = 0;
+
+            // The sender stripped the empty block off, so we add it back.
+            for (byte[] input : new byte[][] {
+                    payload,
+                    EMPTY_BLOCK
+            }) {
+                inflater.setInput(input);
+
+                while (true) {
+                    if (written == out.length) {
+                        if (written > maxLength) break;
+                        out = Arrays.copyOf(out, (int) Math.min(maxLength + 1L, out.length * 2L));
+                    }
+
+                    int inflated = inflater.inflate(out, written, out.length - written);
+                    if (inflated == 0) break;
+                    written += inflated;
+                }
+            }
+
+            if (written > maxLength) {
+                throw new IOException("Inflated payload length too large, max " + maxLength + " bytes.");
+            }
+
+            if (inflater.finished()) {
+                // The client ended the deflate stream, the next message starts a new one.
+                inflater.reset();
+            }
+
+            return written == out.length ? out : Arrays.copyOf(out, written);
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed payload.", e);
+        } finally {
+            if (this.clientNoContextTakeover) {
+                this.pool.give(inflater);
+            } else {
+                this.inflater = inflater;
+            }
+        }
+    }
+
+    /**
+     * Inflates the message as it's read, for streaming listeners. The returned
+     * stream must be closed once the message is done with, which also finishes
+     * inflating whatever wasn't read (so the context stays in sync).
+     */
+    InputStream inflating(InputStream payload, long maxLength) throws IOException {
+        if (this.released) throw new IOException("Websocket is closed.");
+
+        Inflater inflater = this.inflater == null ? this.pool.takeInflater() : this.inflater;
+        return new InflatingStream(payload, inflater, maxLength);
+    }
+
+    private class InflatingStream extends InputStream {
+        private final byte[] single = new byte[1];
+        private final byte[] input = new byte[1024];
+        private final InputStream payload;
+        private final Inflater inflater;
+        private final long maxLength;
+
+        private long inflated = 0;
+        private boolean payloadDone = false;
+        private boolean emptyBlockFed = false;
+        private boolean closed = false;
+
+        InflatingStream(InputStream payload, Inflater inflater, long maxLength) {
+            this.payload = payload;
+            this.inflater = inflater;
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.closed) throw new IOException("Stream is closed.");
+            if (len == 0) return 0;
+
+            try {
+                while (true) {
+                    int count = this.inflater.inflate(b, off, len);
+                    if (count > 0) {
+                        this.inflated += count;
+                        if (this.inflated > this.maxLength) {
+                            throw new IOException("Inflated payload length too large, max " + this.maxLength + " bytes.");
+                        }
+                        return count;
+                    }
+
+                    if (this.inflater.finished()) return -1; // The client ended the deflate stream.
+                    if (this.inflater.needsDictionary()) throw new IOException("Invalid compressed payload.");
+
+                    if (!this.payloadDone) {
+                        int read = this.payload.read(this.input);
+                        if (read == -1) {
+                            this.payloadDone = true;
+                        } else {
+                            this.inflater.setInput(this.input, 0, read);
+                        }
+                    } else if (!this.emptyBlockFed) {
+                        // The sender stripped the empty block off, so we add it back.
+                        this.inflater.setInput(EMPTY_BLOCK);
+                        this.emptyBlockFed = true;
+                    } else {
+                        return -1;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed payload.", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) return;
+
+            try {
+                if (!clientNoContextTakeover) {
+                    // The next message may refer back to anything in this one.
+                    byte[] discard = new byte[1024];
+                    while (this.read(discard, 0, discard.length) != -1);
+                }
+            } finally {
+                this.closed = true;
+
+                if (this.inflater.finished()) {
+                    this.inflater.reset();
+                }
+
+                if (clientNoContextTakeover) {
+                    pool.give(this.inflater);
+                } else {
+                    _DeflateContext.this.inflater = this.inflater;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Returns the (de)compressors to the pool. Must be called under the write lock
+     * once the read loop has exited.
+     */
+    void release() {
+        if (this.released) return;
+        this.released = true;
+
+        if (this.deflater != null) {
+            this.pool.give(this.deflater);
+            this.deflater = null;
+        }
+        if (this.inflater != null) {
+            this.pool.give(this.inflater);
+            this.inflater = null;
+        }
+    }
+
+    /* ---------------- */
+    /* Negotiation      */
+    /* ---------------- */
+
+    /**
+     * @return null, if the client didn't offer anything we can accept.
+     */
+    static @Nullable _DeflateContext negotiate(List<HeaderValue> headers, PerMessageDeflate config, _DeflatePool pool) {
+        for (HeaderValue header : headers) {
+            for (HeaderValue offer : header.delimited(",")) {
+                _DeflateContext context = tryAccept(offer.raw(), config, pool);
+                if (context != null) {
+                    return context;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static @Nullable _DeflateContext tryAccept(String offer, PerMessageDeflate config, _DeflatePool pool) {
+        String[] parts = offer.split(";");
+        if (!parts[0].trim().equalsIgnoreCase("permessage-deflate")) return null;
+
+        boolean serverNoContextTakeover = !config.serverContextTakeover();
+        boolean clientNoContextTakeover = !config.clientContextTakeover();
+        boolean echoServerWindowBits = false;
+
+        Set<String> seen = new HashSet<>();
+        for (int idx = 1; idx < parts.length; idx++) {
+            String param = parts[idx].trim();
+            if (param.isEmpty()) continue;
+
+            String name = param;
+            String value = null;
+            int eqIndex = param.indexOf('=');
+            if (eqIndex != -1) {
+                name = param.substring(0, eqIndex).trim();
+                value = param.substring(eqIndex + 1).trim();
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+            }
+            name = name.toLowerCase();
+
+            if (!seen.add(name)) return null; // Duplicate parameters make the offer invalid.
+
+            switch (name) {
+                case "server_no_context_takeover":
+                    if (value != null) return null;
+                    serverNoContextTakeover = true;
+                    break;
+
+                case "client_no_context_takeover":
+                    if (value != null) return null;
+                    clientNoContextTakeover = true;
+                    break;
+
+                case "server_max_window_bits":
+                    // The JDK's Deflater always uses a 32kb (15 bit) window, so we have to decline
+                    // any smaller limit.
+                    if (parseWindowBits(value) != 15) return null;
+                    echoServerWindowBits = true;
+                    break;
+
+                case "client_max_window_bits":
+                    // Our Inflater handles any window size, so there's nothing for us to limit.
+                    if (value != null && parseWindowBits(value) == -1) return null;
+                    break;
+
+                default:
+                    return null;
+            }
+        }
+
+        StringBuilder response = new StringBuilder("permessage-deflate");
+        if (serverNoContextTakeover) response.append("; server_no_context_takeover");
+        if (clientNoContextTakeover) response.append("; client_no_context_takeover");
+        if (echoServerWindowBits) response.append("; server_max_window_bits=15");
+
+        return new _DeflateContext(response.toString(), config, pool, serverNoContextTakeover, clientNoContextTakeover);
+    }
+
+    private static int parseWindowBits(@Nullable String value) {
+        if (value == null) return -1;
+        try {
+            int bits = Integer.parseInt(value);
+            return bits >= 8 && bits <= 15 ? bits : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
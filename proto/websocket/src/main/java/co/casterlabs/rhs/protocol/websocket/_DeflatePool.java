@@ -0,0 +1,48 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+class _DeflatePool {
+    private final int compressionLevel;
+    private final ArrayBlockingQueue<Deflater> deflaters;
+    private final ArrayBlockingQueue<Inflater> inflaters;
+
+    _DeflatePool(int compressionLevel, int size) {
+        this.compressionLevel = compressionLevel;
+        this.deflaters = new ArrayBlockingQueue<>(Math.max(1, size));
+        this.inflaters = new ArrayBlockingQueue<>(Math.max(1, size));
+    }
+
+    Deflater takeDeflater() {
+        Deflater deflater = this.deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(this.compressionLevel, true);
+        }
+        return deflater;
+    }
+
+    void give(Deflater deflater) {
+        deflater.reset();
+        if (!this.deflaters.offer(deflater)) {
+            deflater.end(); // Pool is full, free the native memory now.
+        }
+    }
+
+    Inflater takeInflater() {
+        Inflater inflater = this.inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        return inflater;
+    }
+
+    void give(Inflater inflater) {
+        inflater.reset();
+        if (!this.inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+}
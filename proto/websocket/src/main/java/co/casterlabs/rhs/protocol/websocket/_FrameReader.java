@@ -0,0 +1,208 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Parses frame headers out of a bulk read buffer, so a burst of small frames
+ * costs one read() instead of one per header byte. Payloads are copied once,
+ * straight into their final array.
+ */
+class _FrameReader {
+    // Lets us XOR 8 bytes at a time. The byte order doesn't matter so long as the
+    // mask is built with the same one.
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private final ByteBuffer view;
+    private int pos = 0;
+    private int limit = 0;
+
+    // The current frame's header.
+    boolean fin;
+    boolean rsv1;
+    boolean rsv2;
+    boolean rsv3;
+    int op;
+    boolean masked;
+    /**
+     * Unsigned.
+     */
+    long length;
+    private final byte[] maskingKey = new byte[4];
+    private long payloadRead;
+
+    _FrameReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(bufferSize, 14 /* Largest possible header. */)];
+        this.view = ByteBuffer.wrap(this.buffer);
+    }
+
+    void readHeader() throws IOException {
+        this.require(2);
+
+        // @formatter:off
+        int header1 = this.buffer[this.pos]     & 0xff;
+        int header2 = this.buffer[this.pos + 1] & 0xff;
+
+        this.fin    = (header1 & 0b10000000) != 0;
+        this.rsv1   = (header1 & 0b01000000) != 0;
+        this.rsv2   = (header1 & 0b00100000) != 0;
+        this.rsv3   = (header1 & 0b00010000) != 0;
+        this.op     =  header1 & 0b00001111;
+
+        this.masked = (header2 & 0b10000000) != 0;
+        int len7    =  header2 & 0b01111111;
+        // @formatter:on
+
+        int lengthBytes = len7 == 127 ? 8 : len7 == 126 ? 2 : 0;
+        this.require(2 + lengthBytes + (this.masked ? 4 : 0));
+        this.pos += 2;
+
+        if (lengthBytes == 0) {
+            this.length = len7;
+        } else {
+            long length = 0;
+            for (int idx = 0; idx < lengthBytes; idx++) {
+                length = (length << 8) | (this.buffer[this.pos++] & 0xff);
+            }
+            this.length = length;
+        }
+
+        if (this.masked) {
+            System.arraycopy(this.buffer, this.pos, this.maskingKey, 0, 4);
+            this.pos += 4;
+        }
+
+        this.payloadRead = 0;
+    }
+
+    /**
+     * @return how much of the current frame's payload is left to read.
+     */
+    long remaining() {
+        return this.length - this.payloadRead;
+    }
+
+    /**
+     * Reads (and unmasks) the next length bytes of the current frame's payload
+     * into the given array, the payload may be read in several pieces. Whatever
+     * is already buffered is unmasked as it's copied out, the rest is read from
+     * the socket directly into the array and unmasked in place.
+     */
+    void readPayload(byte[] dest, int offset, int length) throws IOException {
+        int keyIndex = (int) (this.payloadRead & 3);
+        this.payloadRead += length;
+
+        int buffered = Math.min(length, this.limit - this.pos);
+        if (this.masked) {
+            unmask(this.buffer, this.pos, dest, offset, buffered, this.maskingKey, keyIndex);
+        } else {
+            System.arraycopy(this.buffer, this.pos, dest, offset, buffered);
+        }
+        this.pos += buffered;
+
+        for (int read = buffered; read < length;) {
+            int count = this.in.read(dest, offset + read, length - read);
+            if (count == -1) throw new IOException("Socket closed.");
+            read += count;
+        }
+
+        if (this.masked && buffered < length) {
+            unmask(dest, offset + buffered, dest, offset + buffered, length - buffered, this.maskingKey, keyIndex + buffered);
+        }
+    }
+
+    /**
+     * Unmasks the next piece of the current frame's payload in place and returns
+     * a view of it, only reading from the socket if nothing is buffered. This
+     * saves copying the payload out when it's going to be decoded anyway.
+     *
+     * @implNote The view is only valid until the next call to this reader, and
+     *           there must be some payload remaining.
+     */
+    ByteBuffer nextPayloadChunk() throws IOException {
+        if (this.pos == this.limit) {
+            int read = this.in.read(this.buffer, 0, this.buffer.length);
+            if (read == -1) throw new IOException("Socket closed.");
+            this.pos = 0;
+            this.limit = read;
+        }
+
+        int count = (int) Math.min(this.remaining(), this.limit - this.pos);
+        if (this.masked) {
+            unmask(this.buffer, this.pos, this.buffer, this.pos, count, this.maskingKey, (int) (this.payloadRead & 3));
+        }
+
+        this.view.clear();
+        this.view.position(this.pos).limit(this.pos + count);
+
+        this.pos += count;
+        this.payloadRead += count;
+        return this.view;
+    }
+
+    /**
+     * Discards the rest of the current frame's payload.
+     */
+    void skipPayload() throws IOException {
+        while (this.remaining() > 0) {
+            this.nextPayloadChunk();
+        }
+    }
+
+    /**
+     * XORs length bytes of src with the masking key into dest (which may be the
+     * same array), 8 bytes at a time with a scalar tail.
+     *
+     * @param keyIndex the position in the payload that src starts at, so we
+     *                 know where in the key to start.
+     */
+    static void unmask(byte[] src, int srcOffset, byte[] dest, int destOffset, int length, byte[] key, int keyIndex) {
+        int idx = 0;
+
+        if (length >= Long.BYTES) {
+            long mask = 0;
+            for (int b = Long.BYTES - 1; b >= 0; b--) {
+                mask = (mask << 8) | (key[(keyIndex + b) & 3] & 0xff); // Little endian.
+            }
+
+            for (int end = length - Long.BYTES; idx <= end; idx += Long.BYTES) {
+                long value = (long) LONG_VIEW.get(src, srcOffset + idx);
+                LONG_VIEW.set(dest, destOffset + idx, value ^ mask);
+            }
+        }
+
+        for (; idx < length; idx++) {
+            dest[destOffset + idx] = (byte) (src[srcOffset + idx] ^ key[(keyIndex + idx) & 3]);
+        }
+    }
+
+    /**
+     * Makes sure that at least count bytes are buffered, reading as much as the
+     * socket will give us in one go.
+     */
+    private void require(int count) throws IOException {
+        if (this.limit - this.pos >= count) return;
+
+        if (this.pos > 0) {
+            // Compact.
+            int remaining = this.limit - this.pos;
+            System.arraycopy(this.buffer, this.pos, this.buffer, 0, remaining);
+            this.pos = 0;
+            this.limit = remaining;
+        }
+
+        while (this.limit < count) {
+            int read = this.in.read(this.buffer, this.limit, this.buffer.length - this.limit);
+            if (read == -1) throw new IOException("Socket closed.");
+            this.limit += read;
+        }
+    }
+
+}
@@ -1,29 +1,87 @@
 package co.casterlabs.rhs.protocol.websocket;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jetbrains.annotations.Nullable;
 
-import co.casterlabs.commons.async.Lock;
 import co.casterlabs.commons.io.marshalling.PrimitiveMarshall;
 import co.casterlabs.rhs.protocol.RHSConnection;
 import co.casterlabs.rhs.protocol.websocket.WebsocketResponse.AcceptedWebsocketResponse;
+import co.casterlabs.rhs.util.TimerWheel;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
 @SuppressWarnings("deprecation")
 @RequiredArgsConstructor
 class _ImplWebsocket13 extends Websocket {
-    private final Lock lock = new Lock();
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_LENGTH = 2 + Long.BYTES;
+    private static final int COALESCE_LIMIT = 256;
+    private static final int CHUNK_SIZE = 8192;
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * For payloads that have to be produced (or copied out of a direct buffer)
+     * before they can be written. Writes never block on anything but the socket,
+     * so one per thread is plenty.
+     */
+    private static final ThreadLocal<byte[]> CHUNK_SCRATCH = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    /**
+     * Drains the outbound queues. Threads only stick around while a client is
+     * slow to read, so this stays small.
+     */
+    private static final ExecutorService WRITER = Executors.newCachedThreadPool((r) -> {
+        Thread t = new Thread(r);
+        t.setName("RHS Websocket Writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] frameScratch = new byte[MAX_HEADER_LENGTH + COALESCE_LIMIT]; // Guarded by lock.
 
     private final WebsocketSession session;
     private final AcceptedWebsocketResponse response;
     private final RHSConnection connection;
+    private final @Nullable _DeflateContext deflate;
+    private final long pingIntervalMillis;
+
+    private volatile long lastInbound = System.nanoTime();
+    private volatile long lastPong = System.nanoTime();
+    private volatile TimerWheel.Timeout pingTimeout;
+
+    private volatile boolean isClosed = false; // Whether or not we've stopped sending.
+    private volatile boolean readLoopDone = false;
+    private volatile TimerWheel.Timeout closeTimeout;
+
+    private final AtomicBoolean statusRecorded = new AtomicBoolean();
+    private volatile int closeCode = WebsocketCloseCode.ABNORMAL;
+    private volatile @Nullable String closeReason;
 
-    private boolean isClosed = false;
+    private final Queue<Outbound> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+    private final AtomicBoolean reportingWritability = new AtomicBoolean();
+    private volatile boolean reportedWritable = true; // Only written while reportingWritability is held.
 
     @Override
     public WebsocketSession session() {
@@ -38,212 +96,788 @@ class _ImplWebsocket13 extends Websocket {
     @Override
     public void send(@NonNull String message) throws IOException {
         byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
-        this.sendOrFragment(WebsocketOpCode.TEXT, bytes);
+        this.sendMessage(WebsocketOpCode.TEXT, bytes, 0, bytes.length);
     }
 
     @Override
     public void send(@NonNull byte[] bytes) throws IOException {
-        this.sendOrFragment(WebsocketOpCode.BINARY, bytes);
+        this.sendMessage(WebsocketOpCode.BINARY, bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void send(@NonNull byte[] bytes, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " length=" + length + " bytes.length=" + bytes.length);
+        }
+        this.sendMessage(WebsocketOpCode.BINARY, bytes, offset, length);
+    }
+
+    @Override
+    public void send(@NonNull ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            this.sendMessage(WebsocketOpCode.BINARY, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            ByteBuffer source = buffer.duplicate(); // Leave the caller's position alone.
+            this.locked(() -> this.writeBuffer(source));
+        }
+    }
+
+    @Override
+    public void sendText(@NonNull CharSequence text) throws IOException {
+        long length = _Utf8Encoder.length(text);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Message is too large, " + length + " bytes.");
+        }
+        this.locked(() -> this.writeText(text, (int) length));
+    }
+
+    @Override
+    public void send(@NonNull WebsocketFrame frame) throws IOException {
+        this.locked(() -> this.connection.output.write(frame.encoded));
+    }
+
+    @Override
+    public CompletionStage<Void> sendAsync(@NonNull String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return this.enqueueAsync(new Outbound(null, WebsocketOpCode.TEXT, bytes, new CompletableFuture<>()));
+    }
+
+    @Override
+    public CompletionStage<Void> sendAsync(@NonNull byte[] bytes) {
+        return this.enqueueAsync(new Outbound(null, WebsocketOpCode.BINARY, bytes, new CompletableFuture<>()));
+    }
+
+    @Override
+    public CompletionStage<Void> sendAsync(@NonNull WebsocketFrame frame) {
+        return this.enqueueAsync(new Outbound(frame, 0, null, new CompletableFuture<>()));
+    }
+
+    @Override
+    public boolean isWritable() {
+        return this.writable.get();
+    }
+
+    @Override
+    public long queuedBytes() {
+        return this.queuedBytes.get();
     }
 
     @Override
     public void close() {
+        this.close(WebsocketCloseCode.NORMAL, null);
+    }
+
+    @Override
+    public void close(int statusCode, @Nullable String reason) {
+        if (!WebsocketCloseCode.isSendable(statusCode)) {
+            throw new IllegalArgumentException("Status code " + statusCode + " may not be sent.");
+        }
+
+        byte[] payload = closePayload(statusCode, reason);
         if (this.isClosed) return;
-        this.isClosed = true;
 
+        this.recordStatus(statusCode, reason);
+        if (this.sendClose(payload) && !this.readLoopDone) {
+            // Give the client a moment to reply before we hang up on them.
+            this.closeTimeout = TimerWheel.SHARED.schedule(this::closeSocket, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public int closeCode() {
+        return this.closeCode;
+    }
+
+    @Override
+    public @Nullable String closeReason() {
+        return this.closeReason;
+    }
+
+    /**
+     * Only the first call does anything, so whoever closed first wins.
+     */
+    private void recordStatus(int statusCode, @Nullable String reason) {
+        if (this.statusRecorded.compareAndSet(false, true)) {
+            this.closeReason = reason;
+            this.closeCode = statusCode;
+        }
+    }
+
+    /**
+     * Fails the connection, we don't wait for a reply.
+     */
+    private void failConnection(int statusCode) {
+        this.recordStatus(statusCode, null);
+        this.sendClose(closePayload(statusCode, null));
+    }
+
+    /**
+     * @return true, if this call was the one that sent the close frame.
+     */
+    private boolean sendClose(byte[] payload) {
+        if (this.isClosed) return false;
+
+        this.lock.lock();
         try {
-            this.sendFrame(true, WebsocketOpCode.CLOSE, new byte[0]);
+            // Anything that was queued before the close still goes out.
+            this.flushQueue();
+            if (this.isClosed) return false;
+
+            this.isClosed = true;
+            this.writeFrame(true, false, WebsocketOpCode.CLOSE, payload, 0, payload.length);
+            this.connection.output.flush();
+            return true;
         } catch (IOException e) {
-            // Ignored.
+            this.closeSocket(); // They're not going to reply.
+            return false;
+        } finally {
+            this.lock.unlock();
+            this.failQueue();
+            this.reportWritability();
         }
     }
 
-    private static class WebsocketOpCode {
-        private static final int CONTINUATION = 0;
-        private static final int TEXT = 1;
-        private static final int BINARY = 2;
-        private static final int CLOSE = 8;
-        private static final int PING = 9;
-        private static final int PONG = 10;
+    private static byte[] closePayload(int statusCode, @Nullable String reason) {
+        byte[] reasonBytes = reason == null ? EMPTY_PAYLOAD : reason.getBytes(StandardCharsets.UTF_8);
+        if (reasonBytes.length > 123) {
+            throw new IllegalArgumentException("Close reason must be at most 123 bytes once encoded.");
+        }
+
+        byte[] payload = new byte[2 + reasonBytes.length];
+        payload[0] = (byte) (statusCode >>> 8);
+        payload[1] = (byte) statusCode;
+        System.arraycopy(reasonBytes, 0, payload, 2, reasonBytes.length);
+        return payload;
     }
 
-    private void sendOrFragment(int op, byte[] bytes) throws IOException {
-        this.lock.execute(() -> {
-            try {
-                if (bytes.length <= this.connection.guessedMtu) {
-                    // Don't fragment.
-                    this.sendFrame(true, op, bytes);
-                    return;
-                }
+    static class WebsocketOpCode {
+        static final int CONTINUATION = 0;
+        static final int TEXT = 1;
+        static final int BINARY = 2;
+        static final int CLOSE = 8;
+        static final int PING = 9;
+        static final int PONG = 10;
+    }
 
-                int toWrite = bytes.length;
-                int written = 0;
+    private void sendMessage(int op, byte[] bytes, int offset, int length) throws IOException {
+        this.locked(() -> this.writeMessage(op, bytes, offset, length));
+    }
 
-                while (toWrite > 0) {
-                    byte[] chunk = new byte[Math.min(toWrite, this.connection.guessedMtu)];
-                    System.arraycopy(bytes, written, chunk, 0, chunk.length);
-                    toWrite -= chunk.length;
+    private void locked(WriteAction action) throws IOException {
+        this.lock.lock();
+        try {
+            this.flushQueue(); // Keep everything in order.
+            if (this.isClosed) throw new IOException("Websocket is closed.");
+            action.write();
+            this.connection.output.flush();
+        } catch (IOException e) {
+            this.abort("Write failed");
+            throw e;
+        } finally {
+            this.lock.unlock();
+            this.reportWritability();
+        }
+    }
 
-                    boolean fin = toWrite == 0;
-                    int chunkOp = written == 0 ? op : WebsocketOpCode.CONTINUATION;
+    @FunctionalInterface
+    private static interface WriteAction {
+        void write() throws IOException;
+    }
 
-                    this.sendFrame(fin, chunkOp, chunk);
+    private void sendControl(int op, byte[] payload) throws IOException {
+        this.lock.lock();
+        try {
+            this.writeFrame(true, false, op, payload, 0, payload.length);
+            this.connection.output.flush();
+        } finally {
+            this.lock.unlock();
+        }
+    }
 
-                    written += chunk.length;
-                }
-            } catch (IOException e) {
-                this.close();
-                throw e;
-            }
+    // Caller must hold the lock. Compression also has to happen under the lock,
+    // since the deflate context is shared between messages.
+    private void writeMessage(int op, byte[] bytes, int offset, int length) throws IOException {
+        boolean compressed = this.deflate != null && length >= this.deflate.minimumSize;
+        if (compressed) {
+            bytes = this.deflate.deflate(ByteBuffer.wrap(bytes, offset, length));
+            offset = 0;
+            length = bytes.length;
+        }
+
+        this.writeFragments(op, compressed, bytes, offset, length);
+    }
+
+    // Caller must hold the lock.
+    private void writeFragments(int op, boolean compressed, byte[] bytes, int offset, int length) throws IOException {
+        // Fragment anything larger than the MTU, writing each slice straight out of
+        // the caller's array.
+        int mtu = this.connection.guessedMtu;
+        int written = 0;
+        do {
+            int chunk = Math.min(length - written, mtu);
+            boolean first = written == 0;
+            boolean fin = written + chunk == length;
+
+            // Only the first frame of a message carries the compressed bit.
+            this.writeFrame(fin, compressed && first, first ? op : WebsocketOpCode.CONTINUATION, bytes, offset + written, chunk);
+
+            written += chunk;
+        } while (written < length);
+    }
+
+    // Caller must hold the lock.
+    private void writeBuffer(ByteBuffer source) throws IOException {
+        int length = source.remaining();
+        if (this.deflate != null && length >= this.deflate.minimumSize) {
+            byte[] compressed = this.deflate.deflate(source);
+            this.writeFragments(WebsocketOpCode.BINARY, true, compressed, 0, compressed.length);
+            return;
+        }
+
+        this.writeChunked(WebsocketOpCode.BINARY, length, (dest, offset, max) -> {
+            int count = Math.min(max, source.remaining());
+            source.get(dest, offset, count);
+            return count;
         });
     }
 
-    private void sendFrame(boolean fin, int op, byte[] bytes) throws IOException {
-        this.lock.execute(() -> {
-            int len7 = bytes.length;
-            if (len7 > 125) {
-                if (bytes.length > 65535) {
-                    len7 = 127; // Use 64bit length.
-                } else {
-                    len7 = 126; // Use 16bit length.
+    // Caller must hold the lock.
+    private void writeText(CharSequence text, int length) throws IOException {
+        _Utf8Encoder encoder = new _Utf8Encoder(text);
+
+        if (this.deflate != null && length >= this.deflate.minimumSize) {
+            // The compressor needs the whole message anyway.
+            byte[] bytes = new byte[length];
+            encoder.encode(bytes, 0, length);
+            this.writeMessage(WebsocketOpCode.TEXT, bytes, 0, length);
+            return;
+        }
+
+        this.writeChunked(WebsocketOpCode.TEXT, length, encoder::encode);
+    }
+
+    /**
+     * Writes a payload as it's produced, a chunk at a time, fragmenting by MTU
+     * just like {@link #writeMessage}. Small payloads are produced straight into
+     * the frame buffer behind their header. Caller must hold the lock.
+     */
+    private void writeChunked(int op, int length, ChunkSource source) throws IOException {
+        if (length <= COALESCE_LIMIT) {
+            byte[] frame = this.frameScratch;
+            int headerLength = writeHeader(frame, true, false, op, length);
+            for (int filled = 0; filled < length;) {
+                int count = source.fill(frame, headerLength + filled, length - filled);
+                if (count == 0) throw new IOException("Payload ended early.");
+                filled += count;
+            }
+            this.connection.output.write(frame, 0, headerLength + length);
+            return;
+        }
+
+        byte[] chunk = CHUNK_SCRATCH.get();
+        int mtu = this.connection.guessedMtu;
+        int written = 0;
+        int frameRemaining = 0;
+
+        while (written < length) {
+            int filled = source.fill(chunk, 0, Math.min(chunk.length, length - written));
+            if (filled == 0) throw new IOException("Payload ended early.");
+
+            // Chunks and frames don't line up, so a chunk may straddle two frames.
+            for (int offset = 0; offset < filled;) {
+                if (frameRemaining == 0) {
+                    boolean first = written == 0;
+                    frameRemaining = Math.min(length - written, mtu);
+
+                    int headerLength = writeHeader(this.frameScratch, written + frameRemaining == length, false, first ? op : WebsocketOpCode.CONTINUATION, frameRemaining);
+                    this.connection.output.write(this.frameScratch, 0, headerLength);
                 }
+
+                int count = Math.min(filled - offset, frameRemaining);
+                this.connection.output.write(chunk, offset, count);
+                offset += count;
+                written += count;
+                frameRemaining -= count;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private static interface ChunkSource {
+        /**
+         * @return how many bytes were produced, 0 if there's nothing left.
+         */
+        int fill(byte[] dest, int offset, int length);
+    }
+
+    // Caller must hold the lock.
+    private void writeFrame(boolean fin, boolean rsv1, int op, byte[] bytes, int offset, int length) throws IOException {
+        byte[] header = this.frameScratch;
+        int headerLength = writeHeader(header, fin, rsv1, op, length);
+
+        // Nagle's algorithm is disabled (aka no delay mode), so small frames are
+        // copied in behind their header and go out in a single write.
+        if (length <= COALESCE_LIMIT) {
+            System.arraycopy(bytes, offset, header, headerLength, length);
+            this.connection.output.write(header, 0, headerLength + length);
+        } else {
+            this.connection.output.write(header, 0, headerLength);
+            this.connection.output.write(bytes, offset, length);
+        }
+    }
+
+    static int headerLength(int payloadLength) {
+        // We never mask, so the header is 2, 4, or 10 bytes.
+        if (payloadLength > 65535) return 2 + Long.BYTES;
+        if (payloadLength > 125) return 4;
+        return 2;
+    }
+
+    /**
+     * @return the length of the header.
+     */
+    static int writeHeader(byte[] dest, boolean fin, boolean rsv1, int op, int payloadLength) {
+        dest[0] = (byte) ((fin ? 0b10000000 : 0) | (rsv1 ? 0b01000000 : 0) | op);
+
+        if (payloadLength > 65535) {
+            dest[1] = 127; // Use 64bit length.
+            for (int idx = 0; idx < Long.BYTES; idx++) {
+                dest[2 + idx] = (byte) ((long) payloadLength >>> (56 - (idx * 8)));
+            }
+            return 2 + Long.BYTES;
+        } else if (payloadLength > 125) {
+            dest[1] = 126; // Use 16bit length.
+            dest[2] = (byte) (payloadLength >>> 8);
+            dest[3] = (byte) payloadLength;
+            return 4;
+        } else {
+            dest[1] = (byte) payloadLength;
+            return 2;
+        }
+    }
+
+    /* ---------------- */
+    /* Outbound Queue   */
+    /* ---------------- */
+
+    @Override
+    boolean offer(WebsocketFrame frame) {
+        return this.enqueue(new Outbound(frame, 0, null, null));
+    }
+
+    private CompletionStage<Void> enqueueAsync(Outbound message) {
+        this.enqueue(message); // Failures complete the future.
+        return message.future;
+    }
+
+    private boolean enqueue(Outbound message) {
+        if (this.isClosed) {
+            message.fail(new IOException("Websocket is closed."));
+            return false;
+        }
+
+        SendQueueLimits limits = this.sendQueueLimits();
+
+        long queued = this.queuedBytes.addAndGet(message.length);
+        if (queued > limits.maxQueuedBytes()) {
+            this.queuedBytes.addAndGet(-message.length);
+            message.fail(new IOException("Outbound queue is over " + limits.maxQueuedBytes() + " bytes."));
+
+            if (limits.overflowPolicy() == SendQueueLimits.OverflowPolicy.CLOSE) {
+                // They're not keeping up, so we cut them loose rather than buffer forever.
+                this.connection.logger.debug("Outbound queue is over %d bytes, dropping the slow client.", limits.maxQueuedBytes());
+                this.abort("Send queue overflowed");
             }
+            return false;
+        }
 
-            int header1 = 0;
-            header1 |= (fin ? 1 : 0) << 7;
-            header1 |= op;
+        this.queue.add(message);
 
-            int header2 = 0;
-            header2 |= len7;
-//            header2 |= 0b00000000; // Mask.
+        if (queued > limits.highWatermark() && this.writable.compareAndSet(true, false)) {
+            // The writer may have drained everything before we flipped the flag, in
+            // which case nobody else is going to flip it back.
+            if (this.queuedBytes.get() <= limits.lowWatermark()) {
+                this.writable.set(true);
+            }
+            this.reportWritability();
+        }
 
-            // Nagle's algorithm is disabled (aka no delay mode), so we batch writes to be
-            // more efficient.
-            if (len7 == 126) {
-                byte[] headerBytes = PrimitiveMarshall.BIG_ENDIAN.intToBytes(bytes.length);
-                headerBytes[0] = (byte) header1;
-                headerBytes[1] = (byte) header2; // We only need the first 16 bits from length, so we can overwrite 1-2 safely.
+        this.scheduleDrain();
+        return true;
+    }
 
-                this.connection.output.write(headerBytes);
-            } else if (len7 == 127) {
-                byte[] lenBytes = PrimitiveMarshall.BIG_ENDIAN.longToBytes(bytes.length);
+    private void scheduleDrain() {
+        if (this.draining.compareAndSet(false, true)) {
+            WRITER.execute(this::drain);
+        }
+    }
 
-                byte[] headerBytes = new byte[Long.BYTES + 2];
-                headerBytes[0] = (byte) header1;
-                headerBytes[1] = (byte) header2;
+    /**
+     * Runs on {@link #WRITER}. If the client is slow then only this thread waits
+     * on it.
+     */
+    private void drain() {
+        this.lock.lock();
+        try {
+            this.flushQueue();
+            this.connection.output.flush();
+        } catch (IOException e) {
+            this.abort("Write failed");
+        } finally {
+            this.lock.unlock();
+            this.draining.set(false);
+        }
+        this.reportWritability();
 
-                System.arraycopy(lenBytes, 0, headerBytes, 2, Long.BYTES);
+        // Something may have been queued after our last poll() but before we cleared
+        // the flag.
+        if (!this.queue.isEmpty()) {
+            if (this.isClosed) {
+                this.failQueue();
+            } else {
+                this.scheduleDrain();
+            }
+        }
+    }
 
-                this.connection.output.write(headerBytes);
+    // Caller must hold the lock. Write errors are reported through the futures,
+    // and drop the connection.
+    private void flushQueue() {
+        Outbound message;
+        while ((message = this.queue.poll()) != null) {
+            if (this.isClosed) {
+                message.fail(new IOException("Websocket is closed."));
             } else {
-                this.connection.output.write(new byte[] {
-                        (byte) header1,
-                        (byte) header2
-                });
+                try {
+                    if (message.frame == null) {
+                        this.writeMessage(message.op, message.bytes, 0, message.bytes.length);
+                    } else {
+                        this.connection.output.write(message.frame.encoded);
+                    }
+                    message.complete();
+                } catch (IOException e) {
+                    message.fail(e);
+                    this.abort("Write failed");
+                }
+            }
+
+            long queued = this.queuedBytes.addAndGet(-message.length);
+            // Reported by our caller once it has let go of the lock.
+            if (queued <= this.sendQueueLimits().lowWatermark()) {
+                this.writable.compareAndSet(false, true);
             }
+        }
+    }
+
+    private void failQueue() {
+        IOException closed = new IOException("Websocket is closed.");
+        Outbound message;
+        while ((message = this.queue.poll()) != null) {
+            this.queuedBytes.addAndGet(-message.length);
+            message.fail(closed);
+        }
+    }
+
+    /**
+     * The flag can be flipped by producers and the writer at the same time, so we
+     * report whatever it is now rather than what the caller saw. Only one thread
+     * reports at a time, and it keeps going until the listener has seen the real
+     * state, so the changes always arrive in order.
+     *
+     * @implNote Must not be called with the lock held. The listener is free to
+     *           send or close from in here.
+     */
+    private void reportWritability() {
+        if (this.lock.isHeldByCurrentThread()) {
+            return; // e.g a send from a future callback, the outer caller reports once it unlocks.
+        }
+
+        while (this.writable.get() != this.reportedWritable) {
+            if (!this.reportingWritability.compareAndSet(false, true)) {
+                return; // Whoever is reporting will pick up our change once they're done.
+            }
+
+            try {
+                boolean writable = this.writable.get();
+                if (writable == this.reportedWritable) continue;
+                this.reportedWritable = writable;
+
+                try {
+                    this.response.listener.onWritabilityChanged(this, writable);
+                } catch (Throwable t) {
+                    this.connection.logger.severe("Listener produced exception:\n%s", t);
+                }
+            } finally {
+                this.reportingWritability.set(false);
+            }
+        }
+    }
+
+    /**
+     * Drops the connection without a close frame, since the client isn't in a
+     * state to receive one.
+     */
+    private void abort(String reason) {
+        if (this.isClosed) return;
+        this.isClosed = true;
+        this.recordStatus(WebsocketCloseCode.ABNORMAL, reason);
+        this.failQueue();
+        this.closeSocket();
+    }
 
-            // Note we use an MTUOutputStream here so that we batch writes to be more
-            // efficient when transmitted over the wire.
-            this.connection.output.write(bytes);
+    /**
+     * Closes the socket out from under everyone, without waiting on the lock.
+     * This also unsticks any write (or read) that's blocked on the client.
+     */
+    private void closeSocket() {
+        WRITER.execute(() -> {
+            try {
+                this.connection.input.close();
+            } catch (IOException ignored) {}
         });
     }
 
+    /**
+     * Either a pre-encoded frame or a message that still needs framing (and
+     * maybe compressing).
+     */
+    private static class Outbound {
+        final @Nullable WebsocketFrame frame;
+        final int op;
+        final byte[] bytes;
+        final @Nullable CompletableFuture<Void> future;
+        final int length;
+
+        Outbound(@Nullable WebsocketFrame frame, int op, byte[] bytes, @Nullable CompletableFuture<Void> future) {
+            this.frame = frame;
+            this.op = op;
+            this.bytes = bytes;
+            this.future = future;
+            this.length = frame == null ? bytes.length : frame.encoded.length;
+        }
+
+        void complete() {
+            if (this.future != null) this.future.complete(null);
+        }
+
+        void fail(IOException e) {
+            if (this.future != null) this.future.completeExceptionally(e);
+        }
+
+    }
+
     /* ---------------- */
     /* Internal Methods */
     /* ---------------- */
 
-    @Override
-    void ping() {
-        byte[] someBytes = PrimitiveMarshall.BIG_ENDIAN.longToBytes(System.currentTimeMillis());
-        try {
-            this.sendFrame(true, WebsocketOpCode.PING, someBytes);
-        } catch (IOException ignored) {}
+    /**
+     * Runs on the timer wheel, so this must never block.
+     */
+    private void onPingTimer() {
+        if (this.isClosed) return;
+
+        long now = System.nanoTime();
+        long interval = TimeUnit.MILLISECONDS.toNanos(this.pingIntervalMillis);
+        long sinceInbound = now - this.lastInbound;
+        if (sinceInbound < interval) {
+            // The client has sent us something recently, so we already know it's alive.
+            this.schedulePing(interval - sinceInbound);
+            return;
+        }
+
+        if (sinceInbound >= interval * 2) {
+            // We pinged them at least an interval ago and haven't heard a thing since.
+            this.connection.logger.debug(
+                "Client hasn't sent anything in %dms (last pong was %dms ago), dropping it.",
+                TimeUnit.NANOSECONDS.toMillis(sinceInbound), TimeUnit.NANOSECONDS.toMillis(now - this.lastPong)
+            );
+            this.abort("Ping timeout");
+            return;
+        }
+
+        // Writing may block on a slow client, so that happens on the writer pool. If
+        // the write gets stuck then the next tick will drop the client, which closes
+        // the socket and unsticks it.
+        WRITER.execute(this::sendPing);
+        this.schedulePing(interval);
+    }
+
+    /**
+     * Runs on {@link #WRITER}.
+     */
+    private void sendPing() {
+        if (this.isClosed) return;
+
+        // If someone is mid-write then the connection isn't idle anyway, and we'd
+        // rather not wait on them.
+        if (this.lock.tryLock()) {
+            try {
+                byte[] payload = PrimitiveMarshall.BIG_ENDIAN.longToBytes(System.currentTimeMillis());
+                this.writeFrame(true, false, WebsocketOpCode.PING, payload, 0, payload.length);
+                this.connection.output.flush();
+            } catch (IOException e) {
+                this.abort("Write failed");
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    private void schedulePing(long delayNanos) {
+        this.pingTimeout = TimerWheel.SHARED.schedule(this::onPingTimer, delayNanos, TimeUnit.NANOSECONDS);
     }
 
     @Override
     void process() throws IOException {
+        if (this.pingIntervalMillis > 0) {
+            this.schedulePing(TimeUnit.MILLISECONDS.toNanos(this.pingIntervalMillis));
+        }
+
+        try {
+            this.readLoop();
+        } finally {
+            this.readLoopDone = true;
+            this.recordStatus(WebsocketCloseCode.ABNORMAL, null); // Unless someone closed properly.
+
+            if (this.pingTimeout != null) {
+                this.pingTimeout.cancel();
+            }
+            if (this.closeTimeout != null) {
+                this.closeTimeout.cancel();
+            }
+
+            if (this.deflate != null) {
+                this.lock.lock();
+                try {
+                    this.deflate.release();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void readLoop() throws IOException {
         try {
             this.response.listener.onOpen(this);
         } catch (Throwable t) {
             this.connection.logger.warn("An exception occurred whilst opening listener:\n%s", t);
+            this.failConnection(WebsocketCloseCode.INTERNAL_ERROR);
             return;
         }
 
         // For continuation frames.
         int fragmentedOpCode = 0;
+        boolean fragmentedCompressed = false;
         int fragmentedLength = 0;
         List<byte[]> fragmentedPackets = new LinkedList<>();
 
-        while (!Thread.interrupted() && !this.isClosed) {
-            // TODO accelerate reads by using a WorkBuffer.
-
-            // @formatter:off
-                int header1 = this.throwRead();
-                int header2 = this.throwRead();
-                
-                boolean isFinished = (header1 & 0b10000000) != 0;
-                boolean rsv1       = (header1 & 0b01000000) != 0;
-                boolean rsv2       = (header1 & 0b00100000) != 0;
-                boolean rsv3       = (header1 & 0b00010000) != 0;
-                int     op         =  header1 & 0b00001111;
-                
-                boolean isMasked   = (header2 & 0b10000000) != 0;
-                int     len7       =  header2 & 0b01111111;
-                // @formatter:on
-
-            if (rsv1 || rsv2 || rsv3) {
-                this.connection.logger.fatal("Reserved bits are set, these are not supported! rsv1=%b rsv2=%b rsv3=%b", rsv1, rsv2, rsv3);
+        _Utf8Decoder text = new _Utf8Decoder();
+        _FrameReader reader = new _FrameReader(this.connection.input, READ_BUFFER_SIZE);
+
+        // We keep reading after we've sent our close frame, so that we see the client's
+        // reply. Aborting closes the socket, which gets us out of here.
+        while (!Thread.interrupted()) {
+            reader.readHeader();
+            this.lastInbound = System.nanoTime();
+
+            boolean isFinished = reader.fin;
+            boolean rsv1 = reader.rsv1;
+            int op = reader.op;
+
+            if ((rsv1 && this.deflate == null) || reader.rsv2 || reader.rsv3) {
+                this.connection.logger.fatal("Reserved bits are set, these are not supported! rsv1=%b rsv2=%b rsv3=%b", rsv1, reader.rsv2, reader.rsv3);
+                this.failConnection(WebsocketCloseCode.PROTOCOL_ERROR);
                 return;
             }
 
-            this.connection.logger.trace("fin=%b op=%d mask=%b len7=%d", isFinished, op, isMasked, len7);
+            if (rsv1 && (op == WebsocketOpCode.CONTINUATION || op >= WebsocketOpCode.CLOSE)) {
+                this.connection.logger.fatal("Only the first frame of a data message may be compressed, op=%d", op);
+                this.failConnection(WebsocketCloseCode.PROTOCOL_ERROR);
+                return;
+            }
 
-            int length;
-            if (len7 == 127) {
-                // Unsigned 64bit, possibly negative.
-                long length_long = PrimitiveMarshall.BIG_ENDIAN.bytesToLong(
-                    this.connection.input.readNBytes(8)
-                );
+            if (op >= WebsocketOpCode.CLOSE && (!isFinished || reader.length > 125)) {
+                this.connection.logger.fatal("Control frames must not be fragmented or longer than 125 bytes, op=%d", op);
+                this.failConnection(WebsocketCloseCode.PROTOCOL_ERROR);
+                return;
+            }
 
-                if (Long.compareUnsigned(length_long, this.response.maxPayloadLength) > 0) {
-                    this.connection.logger.fatal("Payload length too large, max %d bytes got %s bytes.", this.response.maxPayloadLength, Long.toUnsignedString(length_long));
-                    return;
-                }
+            boolean isCompressed = rsv1;
 
-                length = (int) length_long;
-            } else if (len7 == 126) {
-                // Unsigned 16bit, never negative. This can never be larger than
-                // MAX_PAYLOAD_LENGTH.
-                length = PrimitiveMarshall.BIG_ENDIAN.bytesToInt(new byte[] {
-                        0,
-                        0,
-                        (byte) this.throwRead(),
-                        (byte) this.throwRead(),
-                });
-            } else {
-                // Unsigned 7bit, never negative. This can never be larger than
-                // MAX_PAYLOAD_LENGTH.
-                length = len7;
+            this.connection.logger.trace("fin=%b op=%d mask=%b len=%s", isFinished, op, reader.masked, Long.toUnsignedString(reader.length));
+
+            // Unsigned 64bit, possibly negative.
+            if (Long.compareUnsigned(reader.length, this.response.maxPayloadLength) > 0) {
+                this.connection.logger.fatal("Payload length too large, max %d bytes got %s bytes.", this.response.maxPayloadLength, Long.toUnsignedString(reader.length));
+                this.failConnection(WebsocketCloseCode.MESSAGE_TOO_BIG);
+                return;
             }
 
-            byte[] maskingKey = null;
-            if (isMasked) {
-                maskingKey = this.connection.input.readNBytes(4);
+            if (this.isClosed && op < WebsocketOpCode.CLOSE) {
+                // We're just waiting on their close frame now.
+                reader.skipPayload();
+                continue;
             }
 
-            // Read in the whole payload.
-            byte[] payload = this.connection.input.readNBytes(length);
+            // RFC 6455 5.4: A message's fragments can only be interleaved with control
+            // frames, and a continuation must belong to a message.
+            boolean messageInProgress = text.active || !fragmentedPackets.isEmpty();
+            if (messageInProgress && (op == WebsocketOpCode.TEXT || op == WebsocketOpCode.BINARY)) {
+                this.connection.logger.fatal("Expected a continuation frame, got op=%d", op);
+                this.failConnection(WebsocketCloseCode.PROTOCOL_ERROR);
+                return;
+            }
+            if (!messageInProgress && op == WebsocketOpCode.CONTINUATION) {
+                this.connection.logger.fatal("Got a continuation frame without a message to continue.");
+                this.failConnection(WebsocketCloseCode.PROTOCOL_ERROR);
+                return;
+            }
+
+            if ((op == WebsocketOpCode.TEXT || op == WebsocketOpCode.BINARY) && this.response.listener instanceof WebsocketStreamListener) {
+                if (this.streamMessage(reader, op, isFinished, isCompressed)) {
+                    continue;
+                } else {
+                    return;
+                }
+            }
+
+            // Uncompressed text is decoded as it arrives, rather than being buffered up
+            // and then decoded.
+            if ((op == WebsocketOpCode.TEXT && !isCompressed) || (op == WebsocketOpCode.CONTINUATION && text.active)) {
+                if (op == WebsocketOpCode.TEXT) {
+                    text.start();
+                }
 
-            // XOR decrypt.
-            if (isMasked) {
-                for (int idx = 0; idx < payload.length; idx++) {
-                    payload[idx] ^= maskingKey[idx % 4];
+                if (text.length + reader.length > this.response.maxPayloadLength) {
+                    this.connection.logger.fatal("Fragmented payload length too large, max %d bytes got %d bytes.", this.response.maxPayloadLength, text.length + reader.length);
+                    this.failConnection(WebsocketCloseCode.MESSAGE_TOO_BIG);
+                    return;
                 }
+
+                String message;
+                try {
+                    text.feed(reader);
+                    if (!isFinished) continue;
+                    message = text.finish();
+                } catch (CharacterCodingException e) {
+                    this.connection.logger.fatal("Text message is not valid UTF-8.");
+                    this.failConnection(WebsocketCloseCode.INVALID_PAYLOAD);
+                    return;
+                }
+
+                this.fireText(message);
+                continue;
             }
 
+            // Read in the whole payload.
+            byte[] payload = new byte[(int) reader.length];
+            reader.readPayload(payload, 0, payload.length);
+
             // We're starting a new fragmented message, store this info for later.
             if (!isFinished && op != WebsocketOpCode.CONTINUATION) {
                 fragmentedOpCode = op;
+                fragmentedCompressed = rsv1;
                 op = WebsocketOpCode.CONTINUATION;
             }
 
@@ -253,6 +887,7 @@ class _ImplWebsocket13 extends Websocket {
                 if (fragmentedLength > this.response.maxPayloadLength) {
                     this.connection.logger.fatal("Fragmented payload length too large, max %d bytes got %d bytes.", this.response.maxPayloadLength, fragmentedLength);
                     fragmentedPackets.clear();
+                    this.failConnection(WebsocketCloseCode.MESSAGE_TOO_BIG);
                     return;
                 }
 
@@ -273,22 +908,38 @@ class _ImplWebsocket13 extends Websocket {
 
                 // We're finished! Parse it!
                 op = fragmentedOpCode;
+                isCompressed = fragmentedCompressed;
                 fragmentedLength = 0;
                 fragmentedPackets.clear();
             }
 
+            if (isCompressed) {
+                try {
+                    payload = this.deflate.inflate(payload, this.response.maxPayloadLength);
+                } catch (IOException e) {
+                    this.connection.logger.fatal("Could not inflate message: %s", e.getMessage());
+                    this.failConnection(WebsocketCloseCode.INVALID_PAYLOAD);
+                    return;
+                }
+            }
+
             // Parse the op code and do behavior tingz.
             switch (op) {
                 case WebsocketOpCode.TEXT: {
-                    this.connection.logger.trace("Got frame: TEXT.");
+                    // Only compressed messages end up here.
+                    String message;
                     try {
-                        String text = new String(payload, StandardCharsets.UTF_8);
-                        payload = null; // Early free attempt.
-                        this.connection.logger.debug("Text frame: %s", text);
-                        this.response.listener.onText(this, text);
-                    } catch (Throwable t) {
-                        this.connection.logger.severe("Listener produced exception:\n%s", t);
+                        text.start();
+                        text.feed(ByteBuffer.wrap(payload));
+                        message = text.finish();
+                    } catch (CharacterCodingException e) {
+                        this.connection.logger.fatal("Text message is not valid UTF-8.");
+                        this.failConnection(WebsocketCloseCode.INVALID_PAYLOAD);
+                        return;
                     }
+
+                    payload = null; // Early free attempt.
+                    this.fireText(message);
                     break;
                 }
 
@@ -303,33 +954,258 @@ class _ImplWebsocket13 extends Websocket {
                     break;
                 }
 
-                case WebsocketOpCode.CLOSE: {
-                    this.connection.logger.trace("Got frame: CLOSE.");
-                    this.close(); // Send close reply.
-                    return;
+                case WebsocketOpCode.CLOSE:
+                case WebsocketOpCode.PING:
+                case WebsocketOpCode.PONG: {
+                    if (this.handleControl(op, payload)) {
+                        continue;
+                    } else {
+                        return;
+                    }
                 }
 
-                case WebsocketOpCode.PING: {
-                    this.connection.logger.trace("Got frame: PING.");
-                    this.sendFrame(true, WebsocketOpCode.PONG, payload); // Send pong reply.
+                default: // Reserved
                     continue;
+            }
+        }
+    }
+
+    private void fireText(String message) {
+        this.connection.logger.trace("Got frame: TEXT.");
+        try {
+            this.connection.logger.debug("Text frame: %s", message);
+            this.response.listener.onText(this, message);
+        } catch (Throwable t) {
+            this.connection.logger.severe("Listener produced exception:\n%s", t);
+        }
+    }
+
+    /**
+     * @return false, if the read loop should stop.
+     */
+    private boolean handleControl(int op, byte[] payload) throws IOException {
+        switch (op) {
+            case WebsocketOpCode.CLOSE: {
+                this.connection.logger.trace("Got frame: CLOSE.");
+
+                int statusCode = WebsocketCloseCode.NO_STATUS;
+                String reason = null;
+                if (payload.length == 1) {
+                    this.connection.logger.fatal("Close frame has a truncated status code.");
+                    this.failConnection(WebsocketCloseCode.PROTOCOL_ERROR);
+                    return false;
+                } else if (payload.length >= 2) {
+                    statusCode = ((payload[0] & 0xff) << 8) | (payload[1] & 0xff);
+                    if (!WebsocketCloseCode.isSendable(statusCode)) {
+                        this.connection.logger.fatal("Close frame has an invalid status code: %d", statusCode);
+                        this.failConnection(WebsocketCloseCode.PROTOCOL_ERROR);
+                        return false;
+                    }
+
+                    if (payload.length > 2) {
+                        try {
+                            reason = StandardCharsets.UTF_8.newDecoder()
+                                .decode(ByteBuffer.wrap(payload, 2, payload.length - 2))
+                                .toString();
+                        } catch (CharacterCodingException e) {
+                            this.connection.logger.fatal("Close reason is not valid UTF-8.");
+                            this.failConnection(WebsocketCloseCode.INVALID_PAYLOAD);
+                            return false;
+                        }
+                    }
                 }
 
-                case WebsocketOpCode.PONG: {
-                    this.connection.logger.trace("Got frame: PONG.");
-                    continue;
+                this.connection.logger.debug("Client closed: %d %s", statusCode, reason);
+                this.recordStatus(statusCode, reason); // Does nothing if we closed first.
+
+                // Echo their status back. If we started the handshake then this is their reply,
+                // and we're done either way.
+                this.sendClose(statusCode == WebsocketCloseCode.NO_STATUS ? EMPTY_PAYLOAD : closePayload(statusCode, null));
+                return false;
+            }
+
+            case WebsocketOpCode.PING: {
+                this.connection.logger.trace("Got frame: PING.");
+                this.sendControl(WebsocketOpCode.PONG, payload); // Send pong reply.
+                return true;
+            }
+
+            case WebsocketOpCode.PONG: {
+                this.connection.logger.trace("Got frame: PONG.");
+                this.lastPong = System.nanoTime();
+                return true;
+            }
+
+            default: // Reserved
+                return true;
+        }
+    }
+
+    /**
+     * Hands the message to the {@link WebsocketStreamListener} as a stream, which
+     * pulls in the rest of the frames as it's read.
+     *
+     * @return false, if the read loop should stop.
+     */
+    private boolean streamMessage(_FrameReader reader, int op, boolean fin, boolean compressed) throws IOException {
+        WebsocketStreamListener listener = (WebsocketStreamListener) this.response.listener;
+        MessageStream message = new MessageStream(reader, fin);
+
+        InputStream in = message;
+        if (compressed) {
+            in = this.deflate.inflating(message, this.response.maxPayloadLength);
+        }
+
+        // Text is checked as it's read, since the listener only ever sees bytes.
+        _Utf8ValidatingInputStream text = null;
+        if (op == WebsocketOpCode.TEXT) {
+            text = new _Utf8ValidatingInputStream(in);
+            in = text;
+        }
+
+        try {
+            if (op == WebsocketOpCode.TEXT) {
+                this.connection.logger.trace("Got frame: TEXT (streamed).");
+                listener.onTextStream(this, in);
+            } else {
+                this.connection.logger.trace("Got frame: BINARY (streamed).");
+                listener.onBinaryStream(this, in);
+            }
+        } catch (Throwable t) {
+            if (message.stopped) return false; // Already logged.
+            if (text == null || !text.invalid) {
+                this.connection.logger.severe("Listener produced exception:\n%s", t);
+            }
+        }
+
+        // Skip whatever the listener didn't read, so we end up at the next message.
+        // Unread text still has to be valid.
+        try {
+            try {
+                if (text != null && !text.invalid) {
+                    text.skipRemaining();
                 }
+            } finally {
+                in.close();
+            }
 
-                default: // Reserved
-                    continue;
+            if (text == null || !text.invalid) {
+                message.skipRemaining();
+            }
+        } catch (IOException e) {
+            if (message.stopped) return false;
+
+            if (text == null || !text.invalid) {
+                this.connection.logger.fatal("Could not finish reading message: %s", e.getMessage());
+                this.failConnection(WebsocketCloseCode.PROTOCOL_ERROR);
+                return false;
             }
         }
+
+        if (text != null && text.invalid) {
+            this.connection.logger.fatal("Text message is not valid UTF-8.");
+            this.failConnection(WebsocketCloseCode.INVALID_PAYLOAD);
+            return false;
+        }
+
+        return !message.stopped;
     }
 
-    private int throwRead() throws IOException {
-        int read = this.connection.input.read();
-        if (read == -1) throw new IOException("Socket closed.");
-        return read;
+    /**
+     * The payload of a (possibly fragmented) message. Control frames in between
+     * the fragments are handled as they come up.
+     */
+    private class MessageStream extends InputStream {
+        private final byte[] single = new byte[1];
+        private final _FrameReader reader;
+        private boolean fin;
+        private long total;
+
+        /**
+         * Set when the read loop has to stop, either because the client broke the
+         * protocol or because the connection is closing.
+         */
+        boolean stopped = false;
+
+        MessageStream(_FrameReader reader, boolean fin) {
+            this.reader = reader;
+            this.fin = fin;
+            this.total = reader.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            while (this.reader.remaining() == 0) {
+                if (this.fin) return -1;
+                this.nextFrame();
+            }
+
+            int count = (int) Math.min(len, this.reader.remaining());
+            this.reader.readPayload(b, off, count);
+            return count;
+        }
+
+        void skipRemaining() throws IOException {
+            byte[] discard = new byte[1024];
+            while (this.read(discard, 0, discard.length) != -1);
+        }
+
+        private void nextFrame() throws IOException {
+            if (this.stopped) throw new IOException("Websocket is closed.");
+
+            while (true) {
+                this.reader.readHeader();
+                _ImplWebsocket13.this.lastInbound = System.nanoTime();
+
+                int op = this.reader.op;
+                if (this.reader.rsv1 || this.reader.rsv2 || this.reader.rsv3) {
+                    this.fail(WebsocketCloseCode.PROTOCOL_ERROR, "Reserved bits are set on a continuation or control frame, op=%d", op);
+                }
+
+                if (op >= WebsocketOpCode.CLOSE) {
+                    if (!this.reader.fin || this.reader.length > 125) {
+                        this.fail(WebsocketCloseCode.PROTOCOL_ERROR, "Control frames must not be fragmented or longer than 125 bytes, op=%d", op);
+                    }
+
+                    byte[] payload = new byte[(int) this.reader.length];
+                    this.reader.readPayload(payload, 0, payload.length);
+
+                    if (!handleControl(op, payload)) {
+                        this.stopped = true;
+                        throw new IOException("Websocket is closed.");
+                    }
+                    continue;
+                }
+
+                if (op != WebsocketOpCode.CONTINUATION) {
+                    this.fail(WebsocketCloseCode.PROTOCOL_ERROR, "Expected a continuation frame, got op=%d", op);
+                }
+
+                // Unsigned 64bit, possibly negative.
+                this.total += this.reader.length;
+                if (this.reader.length < 0 || this.total > response.maxPayloadLength) {
+                    this.fail(WebsocketCloseCode.MESSAGE_TOO_BIG, "Fragmented payload length too large, max %d bytes.", response.maxPayloadLength);
+                }
+
+                this.fin = this.reader.fin;
+                return;
+            }
+        }
+
+        private void fail(int statusCode, String format, Object... args) throws IOException {
+            this.stopped = true;
+            connection.logger.fatal(format, args);
+            failConnection(statusCode);
+            throw new IOException("Protocol error.");
+        }
+
     }
 
 }
@@ -0,0 +1,128 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a text message as its frames arrive, straight out of the read
+ * buffer. The only copy is the one into the resulting String, and invalid UTF-8
+ * is caught as soon as it shows up rather than once the whole message is in.
+ * One per connection, only used on the read thread.
+ */
+class _Utf8Decoder {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int RETAINED_CAPACITY = 64 * 1024; // Chars, don't hang on to the buffer of a huge message.
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    // A character that was split between two chunks, at most 4 bytes.
+    private final ByteBuffer carry = ByteBuffer.allocate(8);
+
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Whether or not we're in the middle of a fragmented message.
+     */
+    boolean active = false;
+
+    /**
+     * How many bytes of this message we've been fed.
+     */
+    long length = 0;
+
+    void start() {
+        this.decoder.reset();
+        this.carry.clear();
+        this.chars.clear();
+        this.active = true;
+        this.length = 0;
+    }
+
+    /**
+     * Decodes the rest of the reader's current frame.
+     */
+    void feed(_FrameReader reader) throws IOException {
+        this.ensureRemaining(reader.remaining());
+        while (reader.remaining() > 0) {
+            this.feed(reader.nextPayloadChunk());
+        }
+    }
+
+    void feed(ByteBuffer in) throws CharacterCodingException {
+        this.length += in.remaining();
+        this.ensureRemaining(in.remaining());
+
+        // Finish off a character that was split across chunks, a byte at a time.
+        while (this.carry.position() > 0 && in.hasRemaining()) {
+            this.carry.put(in.get());
+            this.carry.flip();
+            this.decode(this.carry, false);
+            this.carry.compact();
+        }
+
+        this.decode(in, false);
+        this.carry.put(in); // Anything left is the start of a split character.
+    }
+
+    /**
+     * @throws CharacterCodingException if the message ends part way through a
+     *                                  character.
+     */
+    String finish() throws CharacterCodingException {
+        this.active = false;
+
+        this.carry.flip();
+        this.decode(this.carry, true);
+        while (this.decoder.flush(this.chars).isOverflow()) {
+            this.grow(1);
+        }
+
+        this.chars.flip();
+        String result = this.chars.toString();
+
+        if (this.chars.capacity() > RETAINED_CAPACITY) {
+            this.chars = CharBuffer.allocate(INITIAL_CAPACITY);
+        } else {
+            this.chars.clear();
+        }
+        return result;
+    }
+
+    private void decode(ByteBuffer in, boolean endOfInput) throws CharacterCodingException {
+        while (true) {
+            CoderResult result = this.decoder.decode(in, this.chars, endOfInput);
+            if (result.isUnderflow()) return;
+
+            if (result.isOverflow()) {
+                this.grow(in.remaining());
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    // UTF-8 never decodes to more chars than it has bytes, so this is enough to
+    // avoid growing part way through a frame.
+    private void ensureRemaining(long bytes) {
+        if (this.chars.remaining() < bytes) {
+            this.grow(bytes);
+        }
+    }
+
+    private void grow(long atLeast) {
+        long capacity = Math.max(this.chars.capacity() * 2L, this.chars.position() + atLeast);
+        CharBuffer grown = CharBuffer.allocate((int) Math.min(capacity, Integer.MAX_VALUE - 8));
+        this.chars.flip();
+        grown.put(this.chars);
+        this.chars = grown;
+    }
+
+}
@@ -0,0 +1,87 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+/**
+ * Encodes a {@link CharSequence} as UTF-8 a piece at a time, so it can be
+ * written out without building a byte[] of the whole thing first. Unpaired
+ * surrogates become '?', the same as {@link String#getBytes}.
+ */
+class _Utf8Encoder {
+    private final CharSequence text;
+    private int index = 0;
+
+    _Utf8Encoder(CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * @return how many bytes the text encodes to.
+     */
+    static long length(CharSequence text) {
+        long length = 0;
+        for (int idx = 0, end = text.length(); idx < end; idx++) {
+            char c = text.charAt(idx);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (!Character.isSurrogate(c)) {
+                length += 3;
+            } else if (Character.isHighSurrogate(c) && idx + 1 < end && Character.isLowSurrogate(text.charAt(idx + 1))) {
+                length += 4;
+                idx++;
+            } else {
+                length += 1; // '?'
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes as much as will fit, without splitting a character. So long as
+     * there's room for 4 bytes this always makes progress.
+     *
+     * @return how many bytes were written, 0 once the text has been consumed.
+     */
+    int encode(byte[] dest, int offset, int length) {
+        int pos = offset;
+        int end = offset + length;
+        CharSequence text = this.text;
+        int textLength = text.length();
+
+        while (this.index < textLength) {
+            char c = text.charAt(this.index);
+
+            if (c < 0x80) {
+                if (pos == end) break;
+                dest[pos++] = (byte) c;
+                this.index++;
+            } else if (c < 0x800) {
+                if (end - pos < 2) break;
+                dest[pos++] = (byte) (0xc0 | (c >> 6));
+                dest[pos++] = (byte) (0x80 | (c & 0x3f));
+                this.index++;
+            } else if (!Character.isSurrogate(c)) {
+                if (end - pos < 3) break;
+                dest[pos++] = (byte) (0xe0 | (c >> 12));
+                dest[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                dest[pos++] = (byte) (0x80 | (c & 0x3f));
+                this.index++;
+            } else if (Character.isHighSurrogate(c) && this.index + 1 < textLength && Character.isLowSurrogate(text.charAt(this.index + 1))) {
+                if (end - pos < 4) break;
+                int cp = Character.toCodePoint(c, text.charAt(this.index + 1));
+                dest[pos++] = (byte) (0xf0 | (cp >> 18));
+                dest[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                dest[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                dest[pos++] = (byte) (0x80 | (cp & 0x3f));
+                this.index += 2;
+            } else {
+                if (pos == end) break;
+                dest[pos++] = '?';
+                this.index++;
+            }
+        }
+
+        return pos - offset;
+    }
+
+}
@@ -0,0 +1,104 @@
+package co.casterlabs.rhs.protocol.websocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks that a streamed text message is valid UTF-8 as it's read, without
+ * changing the bytes. Invalid input throws a {@link CharacterCodingException}
+ * and sets {@link #invalid}, so that we can fail the connection even if the
+ * listener swallows the exception.
+ */
+class _Utf8ValidatingInputStream extends InputStream {
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    private final byte[] single = new byte[1];
+    private final InputStream in;
+
+    // A character that was split between two reads, at most 4 bytes.
+    private final ByteBuffer carry = ByteBuffer.allocate(8);
+    private final CharBuffer discard = CharBuffer.allocate(1024);
+
+    private boolean finished = false;
+    boolean invalid = false;
+
+    _Utf8ValidatingInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return this.read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.invalid) throw new CharacterCodingException();
+        if (len == 0) return 0;
+
+        int read = this.in.read(b, off, len);
+        if (read == -1) {
+            this.finish();
+            return -1;
+        }
+
+        ByteBuffer chunk = ByteBuffer.wrap(b, off, read);
+
+        // Finish off a character that was split across reads, a byte at a time.
+        while (this.carry.position() > 0 && chunk.hasRemaining()) {
+            this.carry.put(chunk.get());
+            this.carry.flip();
+            this.validate(this.carry, false);
+            this.carry.compact();
+        }
+
+        this.validate(chunk, false);
+        this.carry.put(chunk); // Anything left is the start of a split character.
+        return read;
+    }
+
+    void skipRemaining() throws IOException {
+        byte[] discard = new byte[1024];
+        while (this.read(discard, 0, discard.length) != -1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    private void finish() throws CharacterCodingException {
+        if (this.finished) return;
+        this.finished = true;
+
+        // The message must not end part way through a character.
+        this.carry.flip();
+        this.validate(this.carry, true);
+        while (this.decoder.flush(this.discard).isOverflow()) {
+            this.discard.clear();
+        }
+    }
+
+    private void validate(ByteBuffer bytes, boolean endOfInput) throws CharacterCodingException {
+        while (true) {
+            CoderResult result = this.decoder.decode(bytes, this.discard, endOfInput);
+            this.discard.clear();
+
+            if (result.isUnderflow()) return;
+            if (result.isOverflow()) continue;
+
+            this.invalid = true;
+            result.throwException();
+        }
+    }
+
+}